@@ -0,0 +1,101 @@
+package core;
+
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+//Where the units of an item would come from, worked out in one walk of its bom
+//Every node takes what free stock it can first (an item used in two branches is only counted once),
+//the rest is built from its components. A non composite part that runs out is recorded as missing.
+//The same plan answers the in stock check, lists the shortages and applies the stock reduction.
+//Get one from Inventory.planAllocation() or InventoryFork.planAllocation()
+public final class AllocationPlan {
+
+    private final Item item;
+    private final int amount;
+
+    private final Map<Item, Integer> fromStock = new LinkedHashMap<>(); //Taken off the shelf
+    private final Map<Item, Integer> toBuild = new LinkedHashMap<>();   //Composites built from components on the way
+    private final Map<Item, Integer> missing = new LinkedHashMap<>();   //Non composite parts short
+
+    private final boolean checkOnly; //Stops at the first missing part, only isInStock() is meaningful
+    private boolean applied = false;
+
+    //available is the free stock of an item: the live inventory, what a pending transaction leaves or a fork
+    AllocationPlan(ToIntFunction<Item> available, Item item, int amount, boolean checkOnly) {
+        this.item = item;
+        this.amount = amount;
+        this.checkOnly = checkOnly;
+        if (amount > 0) {
+            allocate(available, item, amount);
+        }
+    }
+
+    private void allocate(ToIntFunction<Item> available, Item node, int needed) {
+        if (checkOnly && !missing.isEmpty()) return;
+        int inStock = available.applyAsInt(node);
+        int freeForUse = Math.max(0, inStock - fromStock.getOrDefault(node, 0));
+
+        int take = Math.min(freeForUse, needed);
+        if (take > 0) {
+            fromStock.merge(node, take, Integer::sum);
+        }
+        int stillNeeded = needed - take;
+        if (stillNeeded == 0) return;
+
+        if (!node.isComposite()) {
+            missing.merge(node, stillNeeded, Integer::sum);
+            return;
+        }
+
+        toBuild.merge(node, stillNeeded, Integer::sum);
+        for (Map.Entry<Item, Integer> component : node.getComposedOf().entrySet()) {
+            allocate(available, component.getKey(), component.getValue() * stillNeeded);
+        }
+    }
+
+    //-------------------------------<Results>-------------------------------
+    public Item getItem() {
+        return item;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    public boolean isInStock() {
+        return missing.isEmpty();
+    }
+
+    public Map<Item, Integer> getFromStock() {
+        return Collections.unmodifiableMap(fromStock);
+    }
+
+    public Map<Item, Integer> getToBuild() {
+        return Collections.unmodifiableMap(toBuild);
+    }
+
+    public Map<Item, Integer> getMissing() {
+        return Collections.unmodifiableMap(missing);
+    }
+    //-------------------------------</Results>-------------------------------
+
+
+    //Records the stock reduction in the transaction, nothing changes until it commits
+    //Only allowed once and only for a plan that is in stock
+    public void applyTo(InventoryTransaction tx) {
+        if (checkOnly) {
+            throw new IllegalStateException("ERROR: A check only allocation for '" + item.getName() + "' cannot be applied");
+        }
+        if (!isInStock()) {
+            throw new IllegalStateException("ERROR: Cannot apply allocation for '" + item.getName() +
+                    "', missing " + missing.size() + " part(s)");
+        }
+        if (applied) {
+            throw new IllegalStateException("ERROR: Allocation for '" + item.getName() + "' was already applied");
+        }
+        applied = true;
+        for (Map.Entry<Item, Integer> e : fromStock.entrySet()) {
+            tx.remove(e.getKey(), e.getValue());
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+//Net requirements for a whole demand at once (open orders, kits to restock), get one from Inventory.explodeBom()
+//Every item under the demand is numbered once and the bom is held as a sparse matrix: per item, the items directly
+//above it and how many of it one of those takes (compressed rows over the reversed recipe edges).
+//Items are processed level by level from the top: an item's gross need is its own demand plus the shortfall of
+//everything above it times the amount per unit. Free stock covers what it can, the shortfall of a composite is built
+//from its components and the shortfall of a non composite part is what has to be bought.
+//An item used in many places is netted once against its stock, not once per place like summing getBaseComposition().
+//All items of one level only read the level above, so a big level is split across cores.
+//Stock is read from one snapshot so the whole result is from a single point in time
+public final class BomExplosion {
+
+    static final int PARALLEL_THRESHOLD = 4096; //Items in one level before it is split across cores
+    private static final int SPLIT_SIZE = 1024;
+
+    private final Item[] items;      //Level by level, top first
+    private final int[] levelStart;  //Level l is items[levelStart[l]..levelStart[l + 1])
+    private final Map<Item, Integer> index = new IdentityHashMap<>();
+
+    //Reversed bom, the items directly above item i are parents[parentStart[i]..parentStart[i + 1]), one of them takes perUnit of i
+    private final int[] parentStart;
+    private final int[] parents;
+    private final int[] perUnit;
+
+    private final long[] demand;
+    private final long[] incoming;
+    private final long[] available; //Free stock plus incoming
+    private final long[] gross;
+    private final long[] shortfall; //Built (composite) or bought (non composite)
+
+    //incoming is stock on its way (purchase orders, kits being built), counted as free.
+    //netOfReserved: reserved stock is taken and not counted as free. Pass false when the demand already holds the
+    //orders the stock is reserved for, like PlatformManager.getOpenOrderDemand(), so they are not counted twice
+    BomExplosion(Map<Item, Integer> demandByItem, Map<Item, Integer> incomingByItem, InventorySnapshot stock, boolean netOfReserved) {
+        //Every item under the demand, each once, and the recipe edges between them: component <- parent, per unit
+        List<Item> reached = new ArrayList<>();
+        Deque<Integer> toVisit = new ArrayDeque<>();
+        for (Map.Entry<Item, Integer> e : demandByItem.entrySet()) {
+            if (e.getValue() != null && e.getValue() > 0 && index.putIfAbsent(e.getKey(), reached.size()) == null) {
+                toVisit.push(reached.size());
+                reached.add(e.getKey());
+            }
+        }
+        int[] edgeParent = new int[64];
+        int[] edgeChild = new int[64];
+        int[] edgeQuantity = new int[64];
+        int edges = 0;
+        while (!toVisit.isEmpty()) {
+            int p = toVisit.pop();
+            Composition recipe = reached.get(p).getComposition();
+            for (int k = 0; k < recipe.size(); k++) {
+                Item component = recipe.partAt(k);
+                Integer c = index.putIfAbsent(component, reached.size());
+                if (c == null) {
+                    c = reached.size();
+                    toVisit.push(c);
+                    reached.add(component);
+                }
+                if (edges == edgeParent.length) {
+                    edgeParent = Arrays.copyOf(edgeParent, edges * 2);
+                    edgeChild = Arrays.copyOf(edgeChild, edges * 2);
+                    edgeQuantity = Arrays.copyOf(edgeQuantity, edges * 2);
+                }
+                edgeParent[edges] = p;
+                edgeChild[edges] = c;
+                edgeQuantity[edges] = recipe.quantityAt(k);
+                edges++;
+            }
+        }
+        int n = reached.size();
+
+        //Levels: items with nothing left above them, one wave at a time
+        int[] remaining = new int[n];
+        int[] childStart = new int[n + 1];
+        for (int e = 0; e < edges; e++) {
+            remaining[edgeChild[e]]++;
+            childStart[edgeParent[e] + 1]++;
+        }
+        for (int i = 0; i < n; i++) childStart[i + 1] += childStart[i];
+        int[] children = new int[edges];
+        int[] fill = Arrays.copyOf(childStart, n);
+        for (int e = 0; e < edges; e++) children[fill[edgeParent[e]]++] = edgeChild[e];
+
+        int[] order = new int[n];
+        int[] starts = new int[n + 1];
+        int levels = 0;
+        int placed = 0;
+        for (int i = 0; i < n; i++) {
+            if (remaining[i] == 0) order[placed++] = i;
+        }
+        int waveStart = 0;
+        while (waveStart < placed) {
+            starts[levels++] = waveStart;
+            int waveEnd = placed;
+            for (int w = waveStart; w < waveEnd; w++) {
+                int p = order[w];
+                for (int k = childStart[p]; k < childStart[p + 1]; k++) {
+                    if (--remaining[children[k]] == 0) order[placed++] = children[k];
+                }
+            }
+            waveStart = waveEnd;
+        }
+        if (placed < n) {
+            System.out.println("ERROR: " + (n - placed) + " item(s) in a recipe that contains itself were left out of the bom explosion");
+        }
+        starts[levels] = placed;
+        levelStart = Arrays.copyOf(starts, levels + 1);
+
+        //Renumber in level order and build the reversed rows
+        int[] position = new int[n];
+        Arrays.fill(position, -1);
+        items = new Item[placed];
+        for (int i = 0; i < placed; i++) {
+            position[order[i]] = i;
+            items[i] = reached.get(order[i]);
+        }
+        index.clear();
+        for (int i = 0; i < placed; i++) index.put(items[i], i);
+
+        parentStart = new int[placed + 1];
+        for (int e = 0; e < edges; e++) {
+            int c = position[edgeChild[e]];
+            if (c >= 0 && position[edgeParent[e]] >= 0) parentStart[c + 1]++;
+        }
+        for (int i = 0; i < placed; i++) parentStart[i + 1] += parentStart[i];
+        parents = new int[parentStart[placed]];
+        perUnit = new int[parentStart[placed]];
+        fill = Arrays.copyOf(parentStart, placed);
+        for (int e = 0; e < edges; e++) {
+            int c = position[edgeChild[e]];
+            int p = position[edgeParent[e]];
+            if (c < 0 || p < 0) continue;
+            parents[fill[c]] = p;
+            perUnit[fill[c]++] = edgeQuantity[e];
+        }
+
+        demand = new long[placed];
+        incoming = new long[placed];
+        available = new long[placed];
+        gross = new long[placed];
+        shortfall = new long[placed];
+        for (int i = 0; i < placed; i++) {
+            Item item = items[i];
+            int free = netOfReserved ? stock.getAvailable(item) : stock.getQuantity(item);
+            available[i] = Math.max(0, free);
+        }
+        for (Map.Entry<Item, Integer> e : demandByItem.entrySet()) {
+            Integer i = index.get(e.getKey());
+            if (i != null && e.getValue() != null && e.getValue() > 0) demand[i] = e.getValue();
+        }
+        for (Map.Entry<Item, Integer> e : incomingByItem.entrySet()) {
+            Integer i = index.get(e.getKey());
+            if (i != null && e.getValue() != null && e.getValue() > 0) {
+                incoming[i] = e.getValue();
+                available[i] += e.getValue();
+            }
+        }
+
+        for (int l = 0; l + 1 < levelStart.length; l++) {
+            int from = levelStart[l];
+            int to = levelStart[l + 1];
+            if (to - from >= PARALLEL_THRESHOLD) {
+                ForkJoinPool.commonPool().invoke(new LevelTask(from, to));
+            } else {
+                net(from, to);
+            }
+        }
+    }
+
+    //Items from..to are on one level, everything above them is done
+    private void net(int from, int to) {
+        for (int i = from; i < to; i++) {
+            long need = demand[i];
+            for (int k = parentStart[i]; k < parentStart[i + 1]; k++) {
+                need += shortfall[parents[k]] * perUnit[k];
+            }
+            gross[i] = need;
+            shortfall[i] = Math.max(0, need - available[i]);
+        }
+    }
+
+    private final class LevelTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        LevelTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SPLIT_SIZE) {
+                net(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new LevelTask(from, mid), new LevelTask(mid, to));
+        }
+    }
+
+    //-------------------------------<Results>-------------------------------
+    //Non composite parts to buy -> how many, top level first
+    public Map<Item, Long> getToBuy() {
+        Map<Item, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < items.length; i++) {
+            if (shortfall[i] > 0 && !items[i].isComposite()) result.put(items[i], shortfall[i]);
+        }
+        return result;
+    }
+
+    //Composites to build from components -> how many, top level first
+    public Map<Item, Long> getToBuild() {
+        Map<Item, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < items.length; i++) {
+            if (shortfall[i] > 0 && items[i].isComposite()) result.put(items[i], shortfall[i]);
+        }
+        return result;
+    }
+
+    //Every unit of the item needed, from the demand and from what is built above it
+    public long getGross(Item item) {
+        Integer i = index.get(item);
+        return i == null ? 0 : gross[i];
+    }
+
+    //Free stock plus incoming the explosion counted for the item
+    public long getAvailable(Item item) {
+        Integer i = index.get(item);
+        return i == null ? 0 : available[i];
+    }
+
+    //Units short after stock, built for a composite and bought for anything else
+    public long getShortfall(Item item) {
+        Integer i = index.get(item);
+        return i == null ? 0 : shortfall[i];
+    }
+
+    public boolean isCovered() {
+        for (long s : shortfall) {
+            if (s > 0) return false;
+        }
+        return true;
+    }
+
+    //Items under the demand, top level first
+    public List<Item> getItems() {
+        return Collections.unmodifiableList(Arrays.asList(items));
+    }
+
+    public int getLevelCount() {
+        return levelStart.length - 1;
+    }
+
+    //One line per non composite part with a shortfall, for purchasing
+    public void writeCsv(Writer out) throws IOException {
+        out.write("serial,name,required,in_stock,incoming,to_buy\n");
+        for (int i = 0; i < items.length; i++) {
+            if (shortfall[i] <= 0 || items[i].isComposite()) continue;
+            out.write(csv(items[i].getSerial()) + "," + csv(items[i].getName()) + "," + gross[i] + ","
+                    + (available[i] - incoming[i]) + "," + incoming[i] + "," + shortfall[i] + "\n");
+        }
+        out.flush();
+    }
+
+    private static String csv(String value) {
+        if (value == null) return "";
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+    //-------------------------------</Results>-------------------------------
+}
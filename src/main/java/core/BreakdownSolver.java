@@ -0,0 +1,247 @@
+package core;
+
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+//Finds which composite items to break down to cover the parts missing for an order
+//Bounded covering search: each candidate can be broken down 0..min(available, useful) times and the goal is to
+//cover every missing part with the fewest units broken down.
+//Branch and bound drops any branch that can no longer cover what is left or can no longer beat the solutions found,
+//and a partial coverage state already reached with fewer units is never searched again. Reaching it again with as
+//many units is only skipped when nothing under it covered the order, otherwise the new prefix is a different breakdown.
+//The search stops at a node or time budget and returns the best solutions found so far
+class BreakdownSolver {
+
+    static final int MAX_SOLUTIONS = 5;
+    static final int MAX_UNITS = 10; //Most units broken down in a single solution
+    static final int NODE_BUDGET = 200_000;
+    static final long TIME_BUDGET_NANOS = 250_000_000L; //Called from order handling, never hold it up for long
+
+    private final Item[] candidates;
+    private final int[][] yields;          //[candidate][part] parts produced by breaking down one unit
+    private final int[] caps;              //Most units of each candidate worth breaking down
+    private final long[][] suffixCapacity; //[i][part] most of a part that candidates i.. can still produce
+    private final int[][] suffixMaxYield;  //[i][part] best single unit yield of a part among candidates i..
+    private final int[] need;
+
+    private final int[] counts;
+    private final List<int[]> solutions = new ArrayList<>();
+    private final Map<CoverageState, Integer> fewestUnitsAt = new HashMap<>();
+    private final Set<CoverageState> coversNothing = new HashSet<>(); //Searched with fewestUnitsAt units without covering
+    private int covered = 0; //Covering states reached so far
+    private int nodes = 0;
+    private long deadline;
+    private boolean budgetHit = false;
+
+    //Boms come from the inventory, free stock of each candidate from available
+    BreakdownSolver(Inventory inventory, ToIntFunction<Item> available, Map<Item, Integer> missing, Collection<Item> candidateItems) {
+        Map<Item, Integer> partIndex = new HashMap<>();
+        need = new int[missing.size()];
+        for (Map.Entry<Item, Integer> e : missing.entrySet()) {
+            need[partIndex.size()] = e.getValue();
+            partIndex.put(e.getKey(), partIndex.size());
+        }
+
+        //Only candidates that produce something missing and are in stock
+        List<Item> kept = new ArrayList<>();
+        List<int[]> keptYields = new ArrayList<>();
+        List<Integer> keptCaps = new ArrayList<>();
+        for (Item c : candidateItems) {
+            FlatBom flat = inventory.getFlatBom(c);
+            int[] y = new int[need.length];
+            int useful = 0;
+            for (int i = 0; i < flat.size(); i++) {
+                Integer p = partIndex.get(flat.partAt(i));
+                if (p == null) continue;
+                y[p] += flat.quantityAt(i);
+            }
+            for (int p = 0; p < need.length; p++) {
+                if (y[p] > 0) useful = Math.max(useful, ceilDiv(need[p], y[p]));
+            }
+            int cap = Math.min(Math.min(available.applyAsInt(c), MAX_UNITS), useful);
+            if (cap <= 0) continue;
+            kept.add(c);
+            keptYields.add(y);
+            keptCaps.add(cap);
+        }
+
+        //Strongest candidates first so good solutions are found early and prune the rest
+        Integer[] order = new Integer[kept.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> -coverage(keptYields.get(i))));
+
+        int n = order.length;
+        candidates = new Item[n];
+        yields = new int[n][];
+        caps = new int[n];
+        for (int i = 0; i < n; i++) {
+            candidates[i] = kept.get(order[i]);
+            yields[i] = keptYields.get(order[i]);
+            caps[i] = keptCaps.get(order[i]);
+        }
+
+        suffixCapacity = new long[n + 1][need.length];
+        suffixMaxYield = new int[n + 1][need.length];
+        for (int i = n - 1; i >= 0; i--) {
+            for (int p = 0; p < need.length; p++) {
+                suffixCapacity[i][p] = suffixCapacity[i + 1][p] + (long) caps[i] * yields[i][p];
+                suffixMaxYield[i][p] = Math.max(suffixMaxYield[i + 1][p], yields[i][p]);
+            }
+        }
+        counts = new int[n];
+    }
+
+    //Each map is a solution, item to break down -> how many. Fewest units first
+    List<Map<Item, Integer>> solve() {
+        deadline = System.nanoTime() + TIME_BUDGET_NANOS;
+        search(0, need.clone(), 0);
+        if (budgetHit) {
+            System.out.println("Breakdown search stopped at its budget after " + nodes + " nodes, returning the best found");
+        }
+
+        solutions.sort(Comparator.comparingInt(BreakdownSolver::units));
+        List<Map<Item, Integer>> result = new ArrayList<>();
+        for (int[] s : solutions) {
+            Map<Item, Integer> m = new LinkedHashMap<>();
+            for (int i = 0; i < s.length; i++) {
+                if (s[i] > 0) m.put(candidates[i], s[i]);
+            }
+            result.add(m);
+        }
+        return result;
+    }
+
+    //-------------------------------<Search>-------------------------------
+    private void search(int i, int[] remaining, int units) {
+        if (isCovered(remaining)) {
+            covered++;
+            record();
+            return;
+        }
+        if (i == candidates.length || budgetHit) return;
+        if (++nodes > NODE_BUDGET || ((nodes & 1023) == 0 && System.nanoTime() > deadline)) {
+            budgetHit = true;
+            return;
+        }
+
+        //Can candidates i.. still cover it, and with how few units at best
+        int lowerBound = 0;
+        for (int p = 0; p < remaining.length; p++) {
+            if (remaining[p] == 0) continue;
+            if (suffixCapacity[i][p] < remaining[p]) return;
+            lowerBound = Math.max(lowerBound, ceilDiv(remaining[p], suffixMaxYield[i][p]));
+        }
+        int limit = unitLimit();
+        if (units + lowerBound > limit) return;
+
+        CoverageState state = new CoverageState(i, remaining);
+        Integer seen = fewestUnitsAt.get(state);
+        if (seen != null && (seen < units || seen == units && coversNothing.contains(state))) return;
+        fewestUnitsAt.put(state, units);
+        coversNothing.remove(state);
+        int coveredBefore = covered;
+
+        //More units than this only over-produce
+        int useful = 0;
+        for (int p = 0; p < remaining.length; p++) {
+            if (remaining[p] > 0 && yields[i][p] > 0) {
+                useful = Math.max(useful, ceilDiv(remaining[p], yields[i][p]));
+            }
+        }
+        int maxCount = Math.min(Math.min(caps[i], useful), limit - units);
+
+        for (int c = maxCount; c >= 0 && !budgetHit; c--) {
+            int[] next = remaining;
+            if (c > 0) {
+                next = new int[remaining.length];
+                for (int p = 0; p < remaining.length; p++) {
+                    next[p] = Math.max(0, remaining[p] - c * yields[i][p]);
+                }
+            }
+            counts[i] = c;
+            search(i + 1, next, units + c);
+        }
+        counts[i] = 0;
+        if (covered == coveredBefore && !budgetHit) coversNothing.add(state); //The limit only tightens, a revisit covers nothing either
+    }
+
+    //Once the solution list is full only strictly better solutions are worth finding
+    private int unitLimit() {
+        if (solutions.size() < MAX_SOLUTIONS) return MAX_UNITS;
+        int worst = 0;
+        for (int[] s : solutions) worst = Math.max(worst, units(s));
+        return worst - 1;
+    }
+
+    //Solutions that contain another solution are dropped, like breaking down A and B when A alone is enough
+    private void record() {
+        int[] found = counts.clone();
+        for (int[] existing : solutions) {
+            if (containsAll(found, existing)) return;
+        }
+        solutions.removeIf(existing -> containsAll(existing, found));
+        solutions.add(found);
+
+        if (solutions.size() > MAX_SOLUTIONS) {
+            int[] worst = Collections.max(solutions, Comparator.comparingInt(BreakdownSolver::units));
+            solutions.remove(worst);
+        }
+    }
+    //-------------------------------</Search>-------------------------------
+
+
+    //-------------------------------<Helpers>-------------------------------
+    private static boolean isCovered(int[] remaining) {
+        for (int r : remaining) {
+            if (r > 0) return false;
+        }
+        return true;
+    }
+
+    private static boolean containsAll(int[] a, int[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] < b[i]) return false;
+        }
+        return true;
+    }
+
+    private static int units(int[] s) {
+        int total = 0;
+        for (int c : s) total += c;
+        return total;
+    }
+
+    private long coverage(int[] y) {
+        long total = 0;
+        for (int p = 0; p < y.length; p++) total += Math.min(y[p], need[p]);
+        return total;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+    //Next candidate to decide and what is still missing
+    private static final class CoverageState {
+        private final int index;
+        private final int[] remaining;
+        private final int hash;
+
+        CoverageState(int index, int[] remaining) {
+            this.index = index;
+            this.remaining = remaining;
+            this.hash = 31 * index + Arrays.hashCode(remaining);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CoverageState s && s.index == index && Arrays.equals(s.remaining, remaining);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+    //-------------------------------</Helpers>-------------------------------
+}
@@ -0,0 +1,91 @@
+package core;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+//How many units of each composite could be shipped right now: free stock plus what can be built recursively from components
+//Values are kept until something under them changes. A quantity, reservation or recipe change of an item drops
+//the cached value of every item it composes into (all the way up), the next read recomputes only those.
+//Non composite items are not stored, their buildable quantity is just their available quantity
+class BuildableIndex {
+
+    private final Inventory inventory;
+
+    private final Map<Item, Integer> buildable = new ConcurrentHashMap<>();
+    private long epoch = 0; //Guarded by buildable. Bumped on every invalidation so a value computed across one is not kept
+
+    BuildableIndex(Inventory inventory) {
+        this.inventory = inventory;
+    }
+
+    int get(Item item) {
+        if (!item.isComposite()) {
+            return Math.max(0, inventory.getAvailableQuantity(item));
+        }
+        Integer cached = buildable.get(item);
+        if (cached != null) return cached;
+
+        long startEpoch;
+        synchronized (buildable) {
+            startEpoch = epoch;
+        }
+        int value = compute(item);
+        synchronized (buildable) {
+            if (startEpoch == epoch) {
+                buildable.put(item, value);
+            }
+        }
+        return value;
+    }
+
+    //The recurrence (free stock + min over components of buildable / qty per unit) is an upper bound.
+    //It counts a component shared by two branches twice, so the exact value is found with a binary search
+    //under it using isItemInStockRecursive, which takes every unit of a shared component only once
+    private int compute(Item item) {
+        int direct = Math.max(0, inventory.getAvailableQuantity(item));
+
+        long fromComponents = Integer.MAX_VALUE;
+        for (Map.Entry<Item, Integer> e : item.getComposedOf().entrySet()) {
+            int perUnit = e.getValue();
+            if (perUnit <= 0) continue;
+            fromComponents = Math.min(fromComponents, get(e.getKey()) / perUnit);
+        }
+        if (fromComponents == Integer.MAX_VALUE) fromComponents = 0;
+
+        int upper = (int) Math.min(Integer.MAX_VALUE, direct + fromComponents);
+        if (upper == direct || inventory.isItemInStockRecursive(item, upper)) {
+            return upper;
+        }
+
+        //Largest n in [direct, upper) that is in stock recursively
+        int lo = direct;
+        int hi = upper - 1;
+        while (lo < hi) {
+            int mid = lo + (hi - lo + 1) / 2;
+            if (inventory.isItemInStockRecursive(item, mid)) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    //Drops the item and everything it composes into
+    void invalidate(Item item) {
+        if (!item.isComposite() && item.getComposesInto().isEmpty()) return; //Nothing stored depends on it
+        synchronized (buildable) {
+            epoch++;
+            buildable.remove(item);
+            inventory.forEachWhereUsed(item, buildable::remove);
+        }
+    }
+
+    //Drops every stored value
+    void clear() {
+        synchronized (buildable) {
+            epoch++;
+            buildable.clear();
+        }
+    }
+}
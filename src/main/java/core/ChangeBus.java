@@ -0,0 +1,140 @@
+package core;
+
+import platform.PlatformType;
+
+import javax.swing.*;
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+//Carries changes from the core to the windows. Publishing never runs a listener on the mutating thread:
+//events are queued and at most once per frame everything queued is merged into one Batch and delivered on the EDT.
+//A 1000 line import is one refresh, not 1000.
+//Listeners are held weakly so a closed window is not kept alive by the bus. Register the window itself
+//or a listener it keeps in a field, a lambda nothing else references is dropped on the next GC
+public class ChangeBus {
+
+    public sealed interface Event permits ItemChanged, QuantityChanged, LogAdded, LogsChanged, OrdersApplied {}
+    public record ItemChanged(Item item, boolean removed) implements Event {} //Created, edited or removed
+    public record QuantityChanged(Item item) implements Event {}
+    public record LogAdded(Log log) implements Event {}
+    public record LogsChanged() implements Event {} //Logs removed or reloaded
+    public record OrdersApplied(PlatformType platform, int newOrders, int changedOrders) implements Event {}
+
+    @FunctionalInterface
+    public interface Listener {
+        void onChanges(Batch batch); //Always on the EDT
+    }
+
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+
+    private final List<WeakReference<Listener>> listeners = new CopyOnWriteArrayList<>();
+
+    private final Object lock = new Object();
+    private Batch pending;       //Guarded by lock
+    private boolean scheduled;   //Guarded by lock, a delivery is on its way
+    private long lastDelivery;   //Guarded by lock
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "change-bus");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public void addListener(Listener listener) {
+        listeners.add(new WeakReference<>(listener));
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.removeIf(ref -> {
+            Listener l = ref.get();
+            return l == null || l == listener;
+        });
+    }
+
+    public void publish(Event event) {
+        long wait;
+        synchronized (lock) {
+            if (pending == null) pending = new Batch();
+            pending.add(event);
+            if (scheduled) return;
+            scheduled = true;
+            wait = Math.max(0, lastDelivery + FRAME_NANOS - System.nanoTime());
+        }
+        scheduler.schedule(() -> SwingUtilities.invokeLater(this::deliver), wait, TimeUnit.NANOSECONDS);
+    }
+
+    private void deliver() {
+        Batch batch;
+        synchronized (lock) {
+            batch = pending;
+            pending = null;
+            scheduled = false;
+            lastDelivery = System.nanoTime();
+        }
+        if (batch == null) return;
+
+        for (WeakReference<Listener> ref : listeners) {
+            Listener listener = ref.get();
+            if (listener == null) {
+                listeners.remove(ref);
+                continue;
+            }
+            try {
+                listener.onChanges(batch);
+            } catch (RuntimeException e) {
+                System.out.println("ERROR: Change listener failed. " + e.getMessage());
+            }
+        }
+    }
+
+    //Everything that changed since the last delivery, each item listed once
+    public static final class Batch {
+        private final Set<Item> changedItems = new LinkedHashSet<>();
+        private final Set<Item> removedItems = new LinkedHashSet<>();
+        private final Set<Item> quantityChanged = new LinkedHashSet<>();
+        private final List<Log> addedLogs = new ArrayList<>();
+        private boolean logsChanged;
+        private final List<OrdersApplied> ordersApplied = new ArrayList<>();
+
+        private void add(Event event) {
+            if (event instanceof ItemChanged e) {
+                if (e.removed()) {
+                    changedItems.remove(e.item());
+                    quantityChanged.remove(e.item());
+                    removedItems.add(e.item());
+                } else {
+                    removedItems.remove(e.item());
+                    changedItems.add(e.item());
+                }
+            } else if (event instanceof QuantityChanged e) {
+                if (!removedItems.contains(e.item())) quantityChanged.add(e.item());
+            } else if (event instanceof LogAdded e) {
+                addedLogs.add(e.log());
+            } else if (event instanceof LogsChanged) {
+                logsChanged = true;
+            } else if (event instanceof OrdersApplied e) {
+                ordersApplied.add(e);
+            }
+        }
+
+        public Set<Item> getChangedItems() { return Collections.unmodifiableSet(changedItems); }
+        public Set<Item> getRemovedItems() { return Collections.unmodifiableSet(removedItems); }
+        public Set<Item> getQuantityChanged() { return Collections.unmodifiableSet(quantityChanged); }
+        public List<Log> getAddedLogs() { return Collections.unmodifiableList(addedLogs); }
+        public List<OrdersApplied> getOrdersApplied() { return Collections.unmodifiableList(ordersApplied); }
+
+        //Any log added, removed or reloaded
+        public boolean logsTouched() {
+            return logsChanged || !addedLogs.isEmpty();
+        }
+
+        //Any item created, edited, removed or with a new quantity
+        public boolean itemsTouched() {
+            return !changedItems.isEmpty() || !removedItems.isEmpty() || !quantityChanged.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package core;
+
+import java.util.*;
+
+//Compact recipe storage for one item. Components and the amount of each per unit are parallel arrays, and the
+//reverse edges (what an item composes into) are a growable array, so a catalog with millions of edges holds no
+//map entries for them. Recipes and parent lists are small, so lookups scan instead of hashing.
+//Recipes are immutable and replaced as a whole on edit. Both are read through a read only Map/Set view.
+final class Composition extends AbstractMap<Item, Integer> {
+
+    static final Composition EMPTY = new Composition(new Item[0], new int[0]);
+
+    private final Item[] parts;
+    private final int[] quantities;
+
+    private Set<Entry<Item, Integer>> entrySet; //Built on first use
+
+    private Composition(Item[] parts, int[] quantities) {
+        this.parts = parts;
+        this.quantities = quantities;
+    }
+
+    static Composition of(Map<Item, Integer> recipe) {
+        if (recipe == null || recipe.isEmpty()) return EMPTY;
+        Item[] parts = new Item[recipe.size()];
+        int[] quantities = new int[recipe.size()];
+        int i = 0;
+        for (Map.Entry<Item, Integer> e : recipe.entrySet()) {
+            parts[i] = e.getKey();
+            quantities[i] = e.getValue();
+            i++;
+        }
+        return new Composition(parts, quantities);
+    }
+
+    //A copy without one component, or this when it is not in the recipe
+    Composition without(Item component) {
+        int index = indexOf(component);
+        if (index < 0) return this;
+        if (parts.length == 1) return EMPTY;
+        Item[] newParts = new Item[parts.length - 1];
+        int[] newQuantities = new int[parts.length - 1];
+        System.arraycopy(parts, 0, newParts, 0, index);
+        System.arraycopy(quantities, 0, newQuantities, 0, index);
+        System.arraycopy(parts, index + 1, newParts, index, parts.length - index - 1);
+        System.arraycopy(quantities, index + 1, newQuantities, index, parts.length - index - 1);
+        return new Composition(newParts, newQuantities);
+    }
+
+    //-------------------------------<Reading>-------------------------------
+    Item partAt(int index) {
+        return parts[index];
+    }
+
+    int quantityAt(int index) {
+        return quantities[index];
+    }
+
+    private int indexOf(Object key) {
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i].equals(key)) return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return parts.length;
+    }
+
+    @Override
+    public Integer get(Object key) {
+        int index = indexOf(key);
+        return index < 0 ? null : quantities[index];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public Set<Entry<Item, Integer>> entrySet() {
+        Set<Entry<Item, Integer>> view = entrySet;
+        if (view == null) {
+            view = new AbstractSet<>() {
+                @Override
+                public int size() {
+                    return parts.length;
+                }
+
+                @Override
+                public Iterator<Entry<Item, Integer>> iterator() {
+                    return new Iterator<>() {
+                        private int next = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < parts.length;
+                        }
+
+                        @Override
+                        public Entry<Item, Integer> next() {
+                            if (!hasNext()) throw new NoSuchElementException();
+                            int i = next++;
+                            return new SimpleImmutableEntry<>(parts[i], quantities[i]);
+                        }
+                    };
+                }
+            };
+            entrySet = view;
+        }
+        return view;
+    }
+    //-------------------------------</Reading>-------------------------------
+
+
+    //-------------------------------<Parents>-------------------------------
+    //What an item composes into. Only Item changes it, everyone else reads it as a Set
+    static final class Parents extends AbstractSet<Item> {
+
+        private static final Item[] NONE = new Item[0];
+
+        private Item[] parents = NONE;
+        private int count = 0;
+
+        //Caller knows parent is not linked yet
+        synchronized void addNew(Item parent) {
+            if (count == parents.length) {
+                parents = Arrays.copyOf(parents, Math.max(2, count * 2));
+            }
+            parents[count++] = parent;
+        }
+
+        synchronized void link(Item parent) {
+            if (!contains(parent)) addNew(parent);
+        }
+
+        //Order is not kept, the last parent takes the removed one's place
+        synchronized void unlink(Item parent) {
+            for (int i = 0; i < count; i++) {
+                if (parents[i].equals(parent)) {
+                    parents[i] = parents[--count];
+                    parents[count] = null;
+                    if (count == 0) parents = NONE;
+                    return;
+                }
+            }
+        }
+
+        synchronized void clearAll() {
+            parents = NONE;
+            count = 0;
+        }
+
+        @Override
+        public synchronized int size() {
+            return count;
+        }
+
+        @Override
+        public synchronized boolean contains(Object o) {
+            for (int i = 0; i < count; i++) {
+                if (parents[i].equals(o)) return true;
+            }
+            return false;
+        }
+
+        //Iterates a copy so links made or dropped meanwhile are not seen
+        @Override
+        public Iterator<Item> iterator() {
+            Item[] snapshot;
+            synchronized (this) {
+                snapshot = Arrays.copyOf(parents, count);
+            }
+            return new Iterator<>() {
+                private int next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return next < snapshot.length;
+                }
+
+                @Override
+                public Item next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    return snapshot[next++];
+                }
+            };
+        }
+    }
+    //-------------------------------</Parents>-------------------------------
+}
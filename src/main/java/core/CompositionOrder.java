@@ -0,0 +1,117 @@
+package core;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+//Topological rank of every item in the composition graph. A component always ranks lower than what it composes into
+//Kept up to date as recipes change with the Pearce-Kelly dynamic topological order: adding a component only
+//renumbers the items between the two ranks that are actually connected, everything else keeps its rank.
+//Removing a component never breaks the order so nothing is done for it.
+//This turns most "does X contain Y" questions into a rank comparison, a component can never contain a higher ranked item
+class CompositionOrder {
+
+    private final Map<Item, Integer> rank = new ConcurrentHashMap<>();
+    private int nextRank = 0; //Guarded by this. Ranks of removed items are left as gaps
+
+    synchronized void add(Item item) {
+        rank.putIfAbsent(item, nextRank++);
+    }
+
+    synchronized void remove(Item item) {
+        rank.remove(item);
+    }
+
+    //-1 when the item is not tracked
+    int rankOf(Item item) {
+        Integer r = rank.get(item);
+        return r == null ? -1 : r;
+    }
+
+    //Called after parent's recipe changed. Returns false if a component would close a cycle, the order is left as is then
+    synchronized boolean componentsChanged(Item parent) {
+        if (parent.getComposedOf() == null) return true;
+        boolean acyclic = true;
+        for (Item component : parent.getComposedOf().keySet()) {
+            if (!addEdge(component, parent)) acyclic = false;
+        }
+        return acyclic;
+    }
+
+    //component must end up ranked under parent
+    private boolean addEdge(Item component, Item parent) {
+        int lower = rankOf(parent);
+        int upper = rankOf(component);
+        if (lower < 0 || upper < 0 || upper < lower) return true; //Untracked or already in order
+
+        //Everything reachable upward from parent that ranks under component has to move above it
+        Set<Item> forward = new HashSet<>();
+        Deque<Item> toVisit = new ArrayDeque<>();
+        forward.add(parent);
+        toVisit.push(parent);
+        while (!toVisit.isEmpty()) {
+            Item current = toVisit.pop();
+            for (Item above : current.getComposesInto()) {
+                if (above.equals(component)) return false;
+                int r = rankOf(above);
+                if (r >= 0 && r < upper && forward.add(above)) toVisit.push(above);
+            }
+        }
+
+        //Everything reachable downward from component that ranks over parent has to move under it
+        Set<Item> backward = new HashSet<>();
+        backward.add(component);
+        toVisit.push(component);
+        while (!toVisit.isEmpty()) {
+            Item current = toVisit.pop();
+            if (current.getComposedOf() == null) continue;
+            for (Item below : current.getComposedOf().keySet()) {
+                int r = rankOf(below);
+                if (r > lower && backward.add(below)) toVisit.push(below);
+            }
+        }
+
+        //Reuse the same ranks, backward items take the lowest of them
+        Comparator<Item> byRank = Comparator.comparingInt(this::rankOf);
+        List<Item> reordered = new ArrayList<>(backward);
+        reordered.sort(byRank);
+        List<Item> forwardSorted = new ArrayList<>(forward);
+        forwardSorted.sort(byRank);
+        reordered.addAll(forwardSorted);
+
+        int[] ranks = new int[reordered.size()];
+        for (int i = 0; i < ranks.length; i++) ranks[i] = rankOf(reordered.get(i));
+        Arrays.sort(ranks);
+        for (int i = 0; i < ranks.length; i++) rank.put(reordered.get(i), ranks[i]);
+        return true;
+    }
+
+    //Does item contain target anywhere in its recipe
+    boolean reaches(Item item, Item target) {
+        int targetRank = rankOf(target);
+        int itemRank = rankOf(item);
+        if (targetRank >= 0 && itemRank >= 0 && targetRank >= itemRank) return false;
+
+        //Only items ranked over target can contain it, each is visited once
+        Set<Item> visited = new HashSet<>();
+        Deque<Item> toVisit = new ArrayDeque<>();
+        toVisit.push(item);
+        while (!toVisit.isEmpty()) {
+            Item current = toVisit.pop();
+            if (current.getComposedOf() == null) continue;
+            for (Item component : current.getComposedOf().keySet()) {
+                if (component.equals(target)) return true;
+                int r = rankOf(component);
+                if (targetRank >= 0 && r >= 0 && r < targetRank) continue;
+                if (visited.add(component)) toVisit.push(component);
+            }
+        }
+        return false;
+    }
+
+    //Components before what they compose into
+    List<Item> sorted(Collection<Item> items) {
+        List<Item> result = new ArrayList<>(items);
+        result.sort(Comparator.comparingInt(this::rankOf));
+        return result;
+    }
+}
@@ -0,0 +1,134 @@
+package core;
+
+import java.util.*;
+
+//Immutable flattened bill of materials for one unit of an item, only the elementary (non composite) parts
+//A is composed of 2C and 1 B and each B is composed of 3 D. The FlatBom of A is 2 C, 3 D.
+//Parts and quantities are parallel arrays so it is small and can be shared by every caller, get one from Inventory.getFlatBom()
+public final class FlatBom {
+
+    private final Item[] parts;
+    private final int[] quantities;
+    private final int version; //Composition version of the root item when this was built
+
+    private Map<Item, Integer> mapView; //Built on first use
+
+    FlatBom(Map<Item, Integer> totals, int version) {
+        this.parts = new Item[totals.size()];
+        this.quantities = new int[totals.size()];
+        int i = 0;
+        for (Map.Entry<Item, Integer> e : totals.entrySet()) {
+            parts[i] = e.getKey();
+            quantities[i] = e.getValue();
+            i++;
+        }
+        this.version = version;
+    }
+
+    //A non composite item is made of one of itself
+    FlatBom(Item leaf, int version) {
+        this.parts = new Item[]{leaf};
+        this.quantities = new int[]{1};
+        this.version = version;
+    }
+
+    //-------------------------------<Reading>-------------------------------
+    public int size() {
+        return parts.length;
+    }
+
+    public Item partAt(int index) {
+        return parts[index];
+    }
+
+    public int quantityAt(int index) {
+        return quantities[index];
+    }
+
+    //Boms are small so a scan beats hashing
+    public int quantityOf(Item part) {
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i].equals(part)) return quantities[i];
+        }
+        return 0;
+    }
+
+    int getVersion() {
+        return version;
+    }
+    //-------------------------------</Reading>-------------------------------
+
+
+    //-------------------------------<Merging>-------------------------------
+    //Adds multiplier units worth of parts into target
+    public void addTo(Map<Item, Integer> target, int multiplier) {
+        for (int i = 0; i < parts.length; i++) {
+            target.merge(parts[i], quantities[i] * multiplier, Integer::sum);
+        }
+    }
+
+    public Map<Item, Integer> scaled(int amount) {
+        Map<Item, Integer> result = new HashMap<>(parts.length * 2);
+        addTo(result, amount);
+        return result;
+    }
+
+    //Read only Map view for callers that still want a Map, shared and never copied
+    public Map<Item, Integer> asMap() {
+        Map<Item, Integer> view = mapView;
+        if (view == null) {
+            view = new AbstractMap<>() {
+                @Override
+                public int size() {
+                    return parts.length;
+                }
+
+                @Override
+                public Integer get(Object key) {
+                    if (!(key instanceof Item item)) return null;
+                    for (int i = 0; i < parts.length; i++) {
+                        if (parts[i].equals(item)) return quantities[i];
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean containsKey(Object key) {
+                    return get(key) != null;
+                }
+
+                @Override
+                public Set<Entry<Item, Integer>> entrySet() {
+                    return new AbstractSet<>() {
+                        @Override
+                        public int size() {
+                            return parts.length;
+                        }
+
+                        @Override
+                        public Iterator<Entry<Item, Integer>> iterator() {
+                            return new Iterator<>() {
+                                private int next = 0;
+
+                                @Override
+                                public boolean hasNext() {
+                                    return next < parts.length;
+                                }
+
+                                @Override
+                                public Entry<Item, Integer> next() {
+                                    if (!hasNext()) throw new NoSuchElementException();
+                                    int i = next++;
+                                    return new SimpleImmutableEntry<>(parts[i], quantities[i]);
+                                }
+                            };
+                        }
+                    };
+                }
+            };
+            mapView = view;
+        }
+        return view;
+    }
+    //-------------------------------</Merging>-------------------------------
+}
@@ -9,56 +9,101 @@ import java.nio.file.Paths;
 import java.sql.Array;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
 
-public class Inventory {
+public class Inventory implements OrderStock {
 
     //This inventory stores all the items that exist
     //If the item is not it stock then it is still in MainInventory with quantity 0
     //Item packets are sent by the ItemManager to here to update inventory
 
-    public Map<Item, Integer> MainInventory = new HashMap<>();
-    public Map<String, Item> SerialToItemMap = new HashMap<>();
+    //Quantities and reservation totals live in a lock free ledger, MainInventory is a read only view of it for the GUI and saving
+    private final QuantityLedger quantityLedger = new QuantityLedger();
+    public final Map<Item, Integer> MainInventory = quantityLedger.asMap();
+    public Map<String, Item> SerialToItemMap = new ConcurrentHashMap<>();
 
     //O(1) sku lookup
-    public Map<String, Item> AmazonSKUToItemMap = new HashMap<>();
-    public Map<String, Item> EbaySKUToItemMap = new HashMap<>();
-    public Map<String, Item> WalmartSKUToItemMap = new HashMap<>();
+    public Map<String, Item> AmazonSKUToItemMap = new ConcurrentHashMap<>();
+    public Map<String, Item> EbaySKUToItemMap = new ConcurrentHashMap<>();
+    public Map<String, Item> WalmartSKUToItemMap = new ConcurrentHashMap<>();
 
     public LogManager logManager;
     public ItemManager itemManager;
 
-    //Used to close edit and view window when an item is deleted. Main window is the only one here
-    private final ArrayList<ItemListener> listeners = new ArrayList<>();
+    //Item, quantity and log changes for the windows, delivered coalesced on the EDT at most once per frame
+    private final ChangeBus changeBus = new ChangeBus();
+
+    //Logs changing can mean an alert was solved, so the alerts are checked again. Held here since the bus holds it weakly
+    private final ChangeBus.Listener alertRecheck = batch -> {
+        if (!batch.logsTouched()) return;
+        try {
+            checkLowAndOutOfStock();
+        } catch (Exception ex) {
+            try {
+
+                Thread.sleep(500);
+                checkLowAndOutOfStock();
+
+            }catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    };
 
     //Reserved items are for orders only. Users will be notified that amount that is reserved
     // Map structure: Item -> Map of (OrderID -> Quantity Reserved)
+    //The ledger holds the running total per item so available quantity is O(1) and reserve/decrement checks stay atomic
+    //This map is only the detail needed to release or look up one order's share
     private final Map<Item, Map<String, Integer>> orderReservations = new ConcurrentHashMap<>();
 
     //Returns amountInStock - amountReserved
+    //Both live in the same ledger cell, so this is one read and a subtraction
     public int getAvailableQuantity(Item item) {
-        int actual = getQuantity(item);
-        int reserved = getTotalReservedForItem(item);
-        return actual - reserved;
+        return quantityLedger.getAvailable(item);
     }
 
+    //Running total kept by reserveItemsForOrder/releaseReservationForOrder, the per-order detail is never summed
     public int getTotalReservedForItem(Item item) {
-        Map<String, Integer> reservationsForItem = orderReservations.get(item);
-        if (reservationsForItem == null) {
-            return 0;
-        }
-        return reservationsForItem.values().stream().mapToInt(Integer::intValue).sum();
+        return quantityLedger.getReserved(item);
     }
 
+    //Reserves every registered item in the order, even past what is in stock (orders fulfilled via composition)
+    //Lines already reserved with tryReserveItemForOrder are not reserved twice
     public void reserveItemsForOrder(PlatformType platform, BaseSeller.Order order) {
         String orderId = order.getOrderId();
+
+        //The same sku can show up on more than one line
+        Map<Item, Integer> totals = new HashMap<>();
         for (BaseSeller.OrderPacket op : order.getItems()) {
             Item item = getItemByPlatformAndSKU(platform, op.sku());
             if (item != null) {
-                orderReservations
-                        .computeIfAbsent(item, k -> new ConcurrentHashMap<>())
-                        .put(orderId, op.quantity());
+                totals.merge(item, op.quantity(), Integer::sum);
             }
         }
+        for (Map.Entry<Item, Integer> e : totals.entrySet()) {
+            Item item = e.getKey();
+            Integer previous = orderReservations
+                    .computeIfAbsent(item, k -> new ConcurrentHashMap<>())
+                    .put(orderId, e.getValue());
+            quantityLedger.reserve(item, e.getValue() - (previous == null ? 0 : previous));
+            onReservationChanged(item);
+        }
+    }
+
+    //Check-and-reserve for a single order line. Only succeeds if that much unreserved stock exists right now
+    public boolean tryReserveItemForOrder(Item item, String orderId, int quantity) {
+        if (item == null || !hasItem(item) || quantity <= 0) return false;
+        if (!quantityLedger.tryReserve(item, quantity)) {
+            return false;
+        }
+        orderReservations
+                .computeIfAbsent(item, k -> new ConcurrentHashMap<>())
+                .merge(orderId, quantity, Integer::sum);
+        onReservationChanged(item);
+        return true;
     }
 
     public void releaseReservationForOrder(PlatformType platform, BaseSeller.Order order) {
@@ -68,10 +113,12 @@ public class Inventory {
             if (item != null) {
                 Map<String, Integer> reservationsForItem = orderReservations.get(item);
                 if (reservationsForItem != null) {
-                    reservationsForItem.remove(orderId);
+                    Integer released = reservationsForItem.remove(orderId);
+                    if (released != null) {
+                        quantityLedger.reserve(item, -released);
+                        onReservationChanged(item);
+                    }
                     if (reservationsForItem.isEmpty()) {
-                        orderReservations.remove(item);
-
                         orderReservations.computeIfPresent(item, (k, v) ->
                                 v.isEmpty() ? null : v
                         );
@@ -81,29 +128,58 @@ public class Inventory {
         }
     }
 
+    int getReservedForOrder(Item item, String orderId) {
+        Map<String, Integer> reservationsForItem = orderReservations.get(item);
+        if (reservationsForItem == null || orderId == null) return 0;
+        return reservationsForItem.getOrDefault(orderId, 0);
+    }
+
+    //Held while a transaction checks and applies its batch so two batches never interleave
+    private final ReentrantLock transactionLock = new ReentrantLock();
+
+    //Every quantity change marks the item here, checkLowAndOutOfStock only looks at marked items
+    private final StockAlertWatcher stockAlertWatcher = new StockAlertWatcher(this);
+
+    //Max buildable per composite, dropped for everything above an item when its stock, reservations or recipe change
+    private final BuildableIndex buildableIndex = new BuildableIndex(this);
+
+    //Topological rank per item, components rank under what they compose into. Used for cycle checks
+    private final CompositionOrder compositionOrder = new CompositionOrder();
+
+    //Every composite that contains an item anywhere, as a bitset of quantity slots
+    private final WhereUsedIndex whereUsedIndex = new WhereUsedIndex(this, compositionOrder);
+
+    //Names, serials and skus case folded. Exact names are hashed, every key is split into trigrams for substring search
+    private final ItemSearchIndex searchIndex = new ItemSearchIndex(slot -> quantityLedger.itemAt(slot));
+
+    //Latest published point in time view of items and quantities. Replaced, never changed, after every quantity change
+    private final AtomicReference<InventorySnapshot> snapshot = new AtomicReference<>(InventorySnapshot.EMPTY);
+
+    //Every quantity and item change is reported here so it can be saved on its own. Null while loading
+    private volatile InventoryJournal journal;
+
     public Inventory(){}
     public void setLogManager(LogManager lm){
         logManager = lm;
-        logManager.addChangeListener(() ->
-            SwingUtilities.invokeLater(() -> {
-                try {
-                    checkLowAndOutOfStock();
-                } catch (Exception ex) {
-                    try {
-
-                        Thread.sleep(500);
-                        checkLowAndOutOfStock();
-
-                    }catch (InterruptedException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
-            })
-        );
+        changeBus.addListener(alertRecheck);
+    }
+    public ChangeBus getChangeBus() {
+        return changeBus;
+    }
+    //Consistent view for readers that go through many items (view window, saves, exports). Free to hold, nothing is copied
+    public InventorySnapshot getSnapshot() {
+        return snapshot.get();
+    }
+    //What-if copy of the stock for simulations, nothing is copied until the fork changes an item. See InventoryFork
+    public InventoryFork fork() {
+        return new InventoryFork(this, snapshot.get());
     }
     public void setItemManager(ItemManager im){
         itemManager = im;
     }
+    public void setJournal(InventoryJournal journal) {
+        this.journal = journal;
+    }
     public void createItem(
             String name,
             String serialNum,
@@ -117,24 +193,9 @@ public class Inventory {
             int amount
     ){
         //Check if item with this serial number already exists then just add the amount added
-        if (SerialToItemMap.containsKey(serialNum)) {
-           Item i = SerialToItemMap.get(serialNum);
-           addItemAmount(i,amount);
-           return;
-        }
-        if (AmazonSKUToItemMap.containsKey(amazonSellerSKU)) {
-            Item i = AmazonSKUToItemMap.get(amazonSellerSKU);
-            addItemAmount(i,amount);
-            return;
-        }
-        if (EbaySKUToItemMap.containsKey(ebaySellerSKU)) {
-            Item i = EbaySKUToItemMap.get(ebaySellerSKU);
-            addItemAmount(i,amount);
-            return;
-        }
-        if (WalmartSKUToItemMap.containsKey(walmartSellerSKU)) {
-            Item i = WalmartSKUToItemMap.get(walmartSellerSKU);
-            addItemAmount(i,amount);
+        Item existing = findExistingItem(serialNum, amazonSellerSKU, ebaySellerSKU, walmartSellerSKU);
+        if (existing != null) {
+            addItemAmount(existing, amount);
             return;
         }
 
@@ -164,27 +225,12 @@ public class Inventory {
     }
     public void createItemFromSave(Item item, int amount) {
         //Check if item with this serial number already exists then just add the amount added
-        if(MainInventory.get(item) != null){ //Duplicate item
-            return;
-        }
-        if (SerialToItemMap.containsKey(item.getSerial())) {
-            Item i = SerialToItemMap.get(item.getSerial());
-            addItemAmount(i,amount);
-            return;
-        }
-        if (AmazonSKUToItemMap.containsKey(item.getAmazonSellerSKU())) {
-            Item i = AmazonSKUToItemMap.get(item.getAmazonSellerSKU());
-            addItemAmount(i,amount);
+        if(quantityLedger.contains(item)){ //Duplicate item
             return;
         }
-        if (EbaySKUToItemMap.containsKey(item.getEbaySellerSKU())){
-            Item i = EbaySKUToItemMap.get(item.getEbaySellerSKU());
-            addItemAmount(i,amount);
-            return;
-        }
-        if (WalmartSKUToItemMap.containsKey(item.getWalmartSellerSKU())) {
-            Item i = WalmartSKUToItemMap.get(item.getWalmartSellerSKU());
-            addItemAmount(i,amount);
+        Item existing = findExistingItem(item.getSerial(), item.getAmazonSellerSKU(), item.getEbaySellerSKU(), item.getWalmartSellerSKU());
+        if (existing != null) {
+            addItemAmount(existing, amount);
             return;
         }
         //Create new item with serialized components
@@ -203,6 +249,14 @@ public class Inventory {
 
         registerItemMapping(newItem, amount);
     }
+    //Serial first, then any of the platform skus
+    private Item findExistingItem(String serial, String amazonSKU, String ebaySKU, String walmartSKU) {
+        Item existing = getItemBySerial(serial);
+        if (existing == null) existing = getItemByAmazonSKU(amazonSKU);
+        if (existing == null) existing = getItemByEbaySKU(ebaySKU);
+        if (existing == null) existing = getItemByWalmartSKU(walmartSKU);
+        return existing;
+    }
     //Edit the amount of an item
     public void addItemAmount(Item item, int amount){
         if( item == null){
@@ -214,7 +268,7 @@ public class Inventory {
                     amount,
                     "Added " + amount + " units of item '" + item.getName() +
                             "' (Serial: " + item.getSerial() + "). " +
-                            "New quantity: " + MainInventory.get(item),
+                            "New quantity: " + quantityLedger.get(item),
                     item.getSerial()
             );
         }
@@ -227,8 +281,8 @@ public class Inventory {
         if (!hasItem(item)) {
             throw new IllegalStateException("ERROR: Item not found in addItemAmount: " + item.getName());
         }
-        int quantity = MainInventory.getOrDefault(item, 0);
-        MainInventory.put(item, quantity + amount);
+        quantityLedger.add(item, amount);
+        onQuantityChanged(item);
     }
 
     public void decreaseItemAmount(Item item, int amount){
@@ -236,15 +290,14 @@ public class Inventory {
             throw new IllegalStateException("ERROR: Item not found in addItemAmount: " + item.getName());
         }
 
-        int quantity = MainInventory.get(item);
-        quantity = Math.max(0,quantity-amount);
-        MainInventory.put(item, quantity);
+        int quantity = quantityLedger.decreaseClamped(item, amount);
+        onQuantityChanged(item);
         if (logManager != null) {
             logManager.createLog(Log.LogType.ReducedStock,
                     amount,
                     "Removed " + amount + " units of item '" + item.getName() +
                             "' (Serial: " + item.getSerial() + "). " +
-                            "New quantity: " + MainInventory.get(item),
+                            "New quantity: " + quantity,
                     item.getSerial()
             );
         }
@@ -255,76 +308,172 @@ public class Inventory {
             throw new IllegalStateException("ERROR: Item not found in decreaseItemAmountSilent: " + item.getName());
         }
 
-        int quantity = MainInventory.get(item);
-        quantity = Math.max(0,quantity-amount);
-        MainInventory.put(item, quantity);
+        quantityLedger.decreaseClamped(item, amount);
+        onQuantityChanged(item);
     }
     public void setQuantity(Item item,int quantity){
         if (!hasItem(item)) {
             throw new IllegalStateException("ERROR: Item not found in setQuantity: " + item.getName());
         }
         if(quantity < 0) return;
-        MainInventory.put(item, quantity);
+        quantityLedger.set(item, quantity);
+        onQuantityChanged(item);
     }
 
+    //Positive values are added, negative values removed. All or nothing
     public void processItemMap(Map<Item, Integer> items) {
-        for(Map.Entry<Item,Integer> e : items.entrySet()){
-            Item i = e.getKey();
-            int quant = e.getValue();
-
-            if(quant == 0) return;
-            if(quant > 0){
-                addItemAmountSilent(i, quant);
-            } else{
-                decreaseItemAmountSilent(i, quant);
+        beginTransaction().addAll(items).commitSilent();
+    }
+
+    public InventoryTransaction beginTransaction() {
+        return new InventoryTransaction(this, null);
+    }
+    //Stock reserved for this order is treated as free stock by the transaction
+    public InventoryTransaction beginTransaction(String orderId) {
+        return new InventoryTransaction(this, orderId);
+    }
+
+    //Called by InventoryTransaction.commit(). One lock for the whole batch, everything is checked first then applied.
+    //If an edit outside a transaction slips in and a decrement fails, the changes already applied are undone
+    void applyTransaction(InventoryTransaction tx) {
+        transactionLock.lock();
+        try {
+            for (Map.Entry<Item, Integer> e : tx.getDeltas().entrySet()) {
+                Item item = e.getKey();
+                int delta = e.getValue();
+                if (!hasItem(item)) {
+                    throw new IllegalStateException("ERROR: Item not found in transaction: " + item.getName());
+                }
+                if (delta >= 0) continue;
+
+                int have = quantityLedger.get(item)
+                        - Math.max(0, quantityLedger.getReserved(item) - tx.ownReserved(item));
+                if (have < -delta) {
+                    throw new IllegalStateException("ERROR: Insufficient quantity for '" + item.getName() +
+                            "' (have " + have + ", need " + (-delta) + ")");
+                }
+            }
+
+            Map<Item, Integer> applied = new HashMap<>();
+            for (Map.Entry<Item, Integer> e : tx.getDeltas().entrySet()) {
+                Item item = e.getKey();
+                int delta = e.getValue();
+                if (delta > 0) {
+                    quantityLedger.add(item, delta);
+                } else if (quantityLedger.tryDecrease(item, -delta, tx.ownReserved(item)) < 0) {
+                    for (Map.Entry<Item, Integer> undo : applied.entrySet()) {
+                        quantityLedger.add(undo.getKey(), -undo.getValue());
+                    }
+                    throw new IllegalStateException("ERROR: Quantity of '" + item.getName() +
+                            "' changed during the transaction. Nothing was applied.");
+                }
+                applied.put(item, delta);
+            }
+
+            //One snapshot for the whole batch, a reader sees all of it or none of it
+            //Published under the lock, otherwise a later batch sharing an item could publish it before the rest of this one
+            int[] slots = new int[tx.getDeltas().size()];
+            int n = 0;
+            for (Item item : tx.getDeltas().keySet()) {
+                slots[n++] = quantityLedger.slotOf(item);
             }
+            publishSnapshot(slots);
+        } finally {
+            transactionLock.unlock();
+        }
+        for (Item item : tx.getDeltas().keySet()) {
+            afterQuantityChanged(item);
         }
     }
+
+    //Copies the ledger's current state of these slots into a new snapshot in one swap
+    //The ledger is read inside the retry loop, so the last snapshot to win always has the latest values
+    private void publishSnapshot(int... slots) {
+        InventorySnapshot current;
+        InventorySnapshot next;
+        do {
+            current = snapshot.get();
+            next = current.with(slots, quantityLedger);
+        } while (!snapshot.compareAndSet(current, next));
+    }
+
+    //Single place every quantity mutation reports to
+    //The snapshot goes first so a change the journal has written is always in the snapshot it may be compacted into
+    private void onQuantityChanged(Item item) {
+        publishSnapshot(quantityLedger.slotOf(item));
+        afterQuantityChanged(item);
+    }
+    private void afterQuantityChanged(Item item) {
+        stockAlertWatcher.markDirty(item);
+        buildableIndex.invalidate(item);
+        InventoryJournal j = journal;
+        if (j != null) j.quantityChanged(item);
+        changeBus.publish(new ChangeBus.QuantityChanged(item));
+    }
+
+    private void onReservationChanged(Item item) {
+        publishSnapshot(quantityLedger.slotOf(item));
+        buildableIndex.invalidate(item);
+    }
+
+    //Called by Item.setLowStockTrigger()
+    void onLowStockTriggerChanged(Item item) {
+        stockAlertWatcher.markDirty(item);
+        onDetailsChanged(item);
+    }
+
+    //Called by Item whenever something saved with it changes
+    void onDetailsChanged(Item item) {
+        if (!hasItem(item)) return;
+        InventoryJournal j = journal;
+        if (j != null) j.itemChanged(item);
+        changeBus.publish(new ChangeBus.ItemChanged(item, false));
+    }
+
+    //Called once logs and their item links are loaded so the alert pointers are rebuilt from them
+    public void resyncStockAlerts() {
+        stockAlertWatcher.requestResync();
+    }
     public Item getItemBySerial(String serial) {
+        if (serial == null) return null;
         return SerialToItemMap.get(serial);
     }
     //Get current quantity of an item
     public int getQuantity(Item item){
-        return MainInventory.getOrDefault(item, 0);
+        return quantityLedger.get(item);
     }
 
     //Check if an item exists in inventory
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
     public boolean hasItem(Item item){
-        return MainInventory.containsKey(item);
+        return quantityLedger.contains(item);
     }
-    //Only for duplicate checks since this is o(n) no 0(1)
+    //Case insensitive exact name match, read from the search index
     public List<Item> getItemByName(String name) {
-        List<Item> returnList = new ArrayList<>();
-        if (name == null || name.isEmpty()) return returnList;
-        for (Item item : MainInventory.keySet()) {
-            if (item == null) {
-                System.err.println("ERROR: : null item key found in MainInventory!");
-                continue;
-            }
-            if (name.equalsIgnoreCase(item.getName())) {
-                returnList.add(item);
-            }
-        }
-        return returnList;
+        if (name == null || name.isEmpty()) return new ArrayList<>();
+        return searchIndex.withName(name);
+    }
+    //Items with the text anywhere in their name, serial or one of their skus, case insensitive. Empty text matches everything
+    public Set<Item> findItems(String text) {
+        return searchIndex.containing(text);
+    }
+    //Called by the Item name and sku setters
+    void onSearchKeysChanged(Item item) {
+        searchIndex.reindex(item);
+        onDetailsChanged(item);
     }
 
     public void composeItem(Item item, int amount) {
+        composeItem(item, amount, false);
+    }
+    //Validates amount x recipe once and applies everything in one commit with one log
+    //If buildSubAssemblies is true, short sub-assemblies are built from their own parts in the same commit
+    public void composeItem(Item item, int amount, boolean buildSubAssemblies) {
         if (item == null || !item.isComposite() || amount <= 0) {
             throw new RuntimeException("ERROR: ComposeItem called on non-existent item, or non-composite Item, or amount is invalid");
         }
-        for(Map.Entry<Item,Integer> ip: item.getComposedOf().entrySet()){ //Check if we have enough of each part
-            Item i = ip.getKey();
-            int ipAmount = ip.getValue();
-            long required = (long)ipAmount * (long)amount;
-            if(required > getQuantity(i)){
-                throw new RuntimeException("ERROR: Not enough "+ i.getName() + " to compose item: "+ item.getName() +". \n" +
-                        "(Amount needed = "+ipAmount*amount + " || Amount available = "+getQuantity(i) +")");
-            }
-        }
-        for(int i = 0; i <amount; i++){
-            itemManager.composeItem(item);
-        }
+        ItemManager.ComposeResult result = itemManager.composeItem(item, amount, buildSubAssemblies);
+
         //Log the composition
         if (logManager != null) {
             StringBuilder sb = new StringBuilder();
@@ -338,10 +487,23 @@ public class Inventory {
                 sb.append("[").append(ip.getKey().getName())
                         .append(" x").append(ip.getValue()).append("], \n");
             }
+            if (!result.subAssembliesBuilt().isEmpty()) {
+                sb.append("\nBuilt sub-assemblies: \n");
+                for (Map.Entry<Item,Integer> built : result.subAssembliesBuilt().entrySet()) {
+                    sb.append("[").append(built.getKey().getName())
+                            .append(" x").append(built.getValue()).append("], \n");
+                }
+                sb.append("\nTaken from stock: \n");
+                for (Map.Entry<Item,Integer> used : result.consumed().entrySet()) {
+                    sb.append("[").append(used.getKey().getName())
+                            .append(" x").append(used.getValue()).append("], \n");
+                }
+            }
+            sb.append("\nInventory: ").append(result.before()).append(" → ").append(result.after());
 
            logManager.createLog(
                     Log.LogType.ComposedItem,
-                    1,
+                    amount,
                     sb.toString(),
                     item.getSerial()
             );
@@ -412,49 +574,61 @@ public class Inventory {
     }
 
     //Checks if for any X, if X has a composite part that contains X anywhere then it returns false.
+    //Usually a rank comparison, otherwise a walk that skips every item ranked under the one searched for
     public boolean containsItemRecursively(Item item, String searchSerial) {
         if (item.getComposedOf() == null) return false;
 
-        for (Map.Entry<Item,Integer> packet : item.getComposedOf().entrySet()) {
-            Item component = packet.getKey();
-            if (component.getSerial().equals(searchSerial)) {
-                return true;
-            }
-            if (containsItemRecursively(component, searchSerial)) {
-                return true;
+        Item target = getItemBySerial(searchSerial);
+        if (target == null) {
+            //Not registered so it has no rank, walk the whole recipe once
+            Set<Item> visited = new HashSet<>();
+            Deque<Item> toVisit = new ArrayDeque<>();
+            toVisit.push(item);
+            while (!toVisit.isEmpty()) {
+                Item current = toVisit.pop();
+                if (current.getComposedOf() == null) continue;
+                for (Item component : current.getComposedOf().keySet()) {
+                    if (component.getSerial().equals(searchSerial)) return true;
+                    if (visited.add(component)) toVisit.push(component);
+                }
             }
+            return false;
         }
-        return false;
+        return compositionOrder.reaches(item, target);
     }
-    public void removeItemSilent(Item item){
-
-        //Remove composition links
-        for(Item other: item.getComposesInto()){
-
-            if (other == item) continue;
-
-            other.getComposesInto().remove(item);
-
-            other.getComposedOf().remove(item);
+    //Every composite that contains item anywhere in its recipe, not just the direct parents
+    //Read from the where used index, the composition graph is not walked
+    public Set<Item> getWhereUsed(Item item) {
+        Set<Item> result = new LinkedHashSet<>();
+        forEachWhereUsed(item, result::add);
+        return result;
+    }
+    public boolean isUsedIn(Item part, Item composite) {
+        int[] usedIn = whereUsedIndex.get(part);
+        int slot = quantityLedger.slotOf(composite);
+        return usedIn != null && slot >= 0 && Arrays.binarySearch(usedIn, slot) >= 0;
+    }
+    void forEachWhereUsed(Item item, Consumer<Item> action) {
+        int[] usedIn = whereUsedIndex.get(item);
+        if (usedIn == null) return;
+        for (int slot : usedIn) {
+            Item composite = quantityLedger.itemAt(slot);
+            if (composite != null) action.accept(composite);
         }
-
-        item.getComposesInto().clear();
-        item.getComposedOf().clear();
-
-        //Remove all mappings
-        unregisterItemMapping(item);
+    }
+    int slotOf(Item item) {
+        return quantityLedger.slotOf(item);
+    }
+    //Every item, components before what they compose into. Bottom up passes can go through this in order
+    public List<Item> getItemsInCompositionOrder() {
+        return compositionOrder.sorted(MainInventory.keySet());
+    }
+    public void removeItemSilent(Item item){
+        removeItemRecord(item);
 
         //Remove all logs
         if (logManager != null) {
-            ArrayList<Log> logsToRemove = logManager.itemToLogs.get(item);
-
-            if (logsToRemove != null) {
-                ArrayList<Log> copy = new ArrayList<>(logsToRemove);
-                for (Log l : copy) {
-                    logManager.removeLog(l);
-                }
-            }
-            logManager.itemToLogs.remove(item);
+            logManager.removeLogsForItem(item);
         }
 
         if(!item.getImagePath().equals(Constants.NOT_FOUND_PNG)){
@@ -464,7 +638,27 @@ public class Inventory {
                 System.out.println("ERROR: Could not delete image files for item: " + item.getName());
             }
         }
-        notifyListeners(item);
+    }
+    //Only drops the item and its composition links, logs and the image are left alone. Used when replaying the journal
+    public void removeItemRecord(Item item){
+
+        //Remove composition links. Every kit that used this item gets its recipe changed
+        for(Item other: new ArrayList<>(item.getComposesInto())){
+
+            if (other == item) continue;
+
+            other.removeComponent(item);
+        }
+        List<Item> formerComponents = item.getComposedOf() == null ? new ArrayList<>() : new ArrayList<>(item.getComposedOf().keySet());
+        item.detachComposition();
+        onCompositionChanged(item, formerComponents); //Nothing under it is used in it anymore
+
+        //Remove all mappings
+        unregisterItemMapping(item);
+
+        InventoryJournal j = journal;
+        if (j != null) j.itemRemoved(item);
+        changeBus.publish(new ChangeBus.ItemChanged(item, true)); //Windows showing it close
     }
 
 
@@ -474,7 +668,13 @@ public class Inventory {
             throw new RuntimeException("ERROR: registerItemMapping called on null item or negative quantity");
         }
 
-        MainInventory.put(item, amount);
+        publishSnapshot(quantityLedger.assign(item, amount));
+        onDetailsChanged(item); //Before its quantity, the journal replays them in order
+        afterQuantityChanged(item);
+        compositionOrder.add(item);
+        compositionOrder.componentsChanged(item);
+        whereUsedIndex.recipeChanged(item, Collections.emptySet());
+        searchIndex.add(item, quantityLedger.slotOf(item));
 
         if (item.getSerial() != null && !item.getSerial().isEmpty())
             SerialToItemMap.put(item.getSerial(), item);
@@ -489,7 +689,14 @@ public class Inventory {
     private void unregisterItemMapping(Item item) {
         if (item == null) return;
 
-        MainInventory.remove(item);
+        searchIndex.remove(item);
+        int slot = quantityLedger.slotOf(item);
+        quantityLedger.free(item);
+        publishSnapshot(slot);
+        stockAlertWatcher.forget(item);
+        buildableIndex.invalidate(item);
+        compositionOrder.remove(item);
+        whereUsedIndex.remove(item);
 
         if (item.getSerial() != null && !item.getSerial().isEmpty())
             SerialToItemMap.remove(item.getSerial());
@@ -516,66 +723,9 @@ public class Inventory {
         return WalmartSKUToItemMap.get(walmartSKU);
     }
 
-    public synchronized void checkLowAndOutOfStock() {
-        List<Item> items = new ArrayList<>(MainInventory.keySet());
-
-        for (Item i : items) {
-            Integer currentQuantityObj = MainInventory.get(i);
-            if (currentQuantityObj == null) continue; // in case removed mid-way
-            int currentQuantity = currentQuantityObj;
-            int trigger = i.getLowStockTrigger();
-            if (trigger == 0) continue;
-
-            ArrayList<Log> logsForI = logManager.itemToLogs.getOrDefault(i, new ArrayList<>());
-
-            Log lowStockLog = null;
-            Log outOfStockLog = null;
-
-            for (Log l : logsForI) {
-                if (l.getType() == Log.LogType.LowStock) lowStockLog = l;
-                if (l.getType() == Log.LogType.ItemOutOfStock) outOfStockLog = l;
-            }
-
-            String lowStockReminder = " (Current quantity : " + currentQuantity + " | Low stock trigger : " + trigger + ")";
-
-            //Out of stock
-            if (currentQuantity == 0) {
-                if (lowStockLog != null) logManager.removeLog(lowStockLog);
-                if (outOfStockLog == null) {
-                    logManager.createLog(
-                            Log.LogType.ItemOutOfStock,
-                            0,
-                            i.getName() + " (" + i.getSerial() + ") out of stock!" + lowStockReminder,
-                            i.getSerial()
-                    );
-                } else {
-                    outOfStockLog.setMessage(
-                            i.getName() + " (" + i.getSerial() + ") out of stock!" + lowStockReminder
-                    );
-                }
-            }
-            //Low stock
-            else if (currentQuantity <= trigger) {
-                if (lowStockLog == null) {
-                    logManager.createLog(
-                            Log.LogType.LowStock,
-                            currentQuantity,
-                            i.getName() + " (" + i.getSerial() + ") is low on stock!" + lowStockReminder,
-                            i.getSerial()
-                    );
-                } else {
-                    lowStockLog.setMessage(
-                            i.getName() + " (" + i.getSerial() + ") is still low on stock!" + lowStockReminder
-                    );
-                }
-                if (outOfStockLog != null) logManager.removeLog(outOfStockLog);
-            }
-            // Stock normal
-            else {
-                if (lowStockLog != null) logManager.removeLog(lowStockLog);
-                if (outOfStockLog != null) logManager.removeLog(outOfStockLog);
-            }
-        }
+    //Only re-evaluates items whose quantity or low stock trigger changed since the last call
+    public void checkLowAndOutOfStock() {
+        stockAlertWatcher.evaluate();
     }
     public Item getItemByPlatformAndSKU(PlatformType p, String SKU){
         return switch (p){
@@ -588,13 +738,18 @@ public class Inventory {
     //Only for orders
     //Each map is a solution where the item is the one to be broken down and the int is the amount that needs to be broken down.
     public List<Map<Item, Integer>> possibleBreakDownsForItem(Item neededItem, int amountNeeded){
-        if(isItemInStockRecursive(neededItem, amountNeeded)){
+        return possibleBreakDownsForItem(neededItem, amountNeeded, this::getAvailableQuantity);
+    }
+    //Same search against other free stock, used by InventoryFork
+    List<Map<Item, Integer>> possibleBreakDownsForItem(Item neededItem, int amountNeeded, ToIntFunction<Item> available){
+        AllocationPlan plan = new AllocationPlan(available, neededItem, amountNeeded, false);
+        if(plan.isInStock()){
             return new ArrayList<>();
         }
         List<Map<Item, Integer>> solutions = new ArrayList<>();
 
         // Step 1, what are we missing?
-        Map<Item, Integer> missing = getMissingItemsRecursive(neededItem, amountNeeded);
+        Map<Item, Integer> missing = plan.getMissing();
 
         //Check if all missing items can actually be made
         for(Map.Entry<Item,Integer> e : missing.entrySet()){
@@ -611,135 +766,69 @@ public class Inventory {
             compositeItemsWeCareAbout.addAll(missingItem.getComposesInto());
         }
 
-        List<Item> compositeList = new ArrayList<>(compositeItemsWeCareAbout);
-
-        //Step 3, solve
-        int MAX_SOLUTIONS = 5;
-        int MAX_COMBINATION_SIZE = 10;
-        outerLoop:
-        for(int i = 1; i <= MAX_COMBINATION_SIZE; i++) {
-            List<List<Item>> combos = getAllPossibleCombinations(compositeList, i);
-
-            //Check if any list has composite items that can map to every missing
-            for (List<Item> combo : combos) {
-
-                // Step 3 Compute base parts produced by the combo
-                Map<Item, Integer> producedTotals = new HashMap<>();
-
-                for (Item composite : combo) {
-                    Map<Item, Integer> flat = getBaseComposition(composite, 1);
-                    mergeInto(producedTotals, flat);
-                }
-                //Check if the combo covers ALL missing items
-                boolean coversAll = true;
-                for (Map.Entry<Item, Integer> need : missing.entrySet()) {
-                    int have = producedTotals.getOrDefault(need.getKey(), 0);
-                    if (have < need.getValue()) {
-                        coversAll = false;
-                        break;
-                    }
-                }
-                if (!coversAll) continue;
+        //Step 3, solve. Bounded search for the fewest units to break down, see BreakdownSolver
+        return new BreakdownSolver(this, available, missing, compositeItemsWeCareAbout).solve();
+    }
+    //Returns the composition of items in from elementary parts
+    //A is composed of 2C and 1 B and each B is composed of 3 D and each. So getBaseComposition of A is 2 C, 3 D.
+    // So getBaseComposition of (1A) = 2C, 3D
+    //For 1 unit this is the shared read only map of the cached FlatBom, nothing is copied
+    public Map<Item, Integer> getBaseComposition(Item item, int amount) {
+        FlatBom flat = getFlatBom(item);
+        return amount == 1 ? flat.asMap() : flat.scaled(amount);
+    }
 
-                //Count how many of each composite item the combo uses
-                Map<Item, Integer> counted = new HashMap<>();
-                for (Item c : combo) {
-                    counted.merge(c, 1, Integer::sum);
-                }
-                //Make sure all these items are in stock
-                boolean allInStock = true;
-                for (Map.Entry<Item, Integer> entry : counted.entrySet()) {
-                    if (getAvailableQuantity(entry.getKey()) < entry.getValue()) {
-                        allInStock = false;
-                        break;
-                    }
-                }
-                if (!allInStock) continue;
-
-
-                //IF a solution is 1 of Item A, then don't add item A and ITem b
-                boolean isSuperset = false;
-                for (Map<Item, Integer> existing : solutions) {
-                    boolean containsAll = true;
-                    for (Map.Entry<Item, Integer> entry : existing.entrySet()) {
-                        if (counted.getOrDefault(entry.getKey(), 0) < entry.getValue()) {
-                            containsAll = false;
-                            break;
-                        }
-                    }
-                    if (containsAll && counted.size() >= existing.size()) {
-                        isSuperset = true;
-                        break;
-                    }
-                }
+    //Flattened boms for 1 unit, keyed by item and checked against its composition version
+    //A recipe change drops the item and every item it composes into (all the way up), see onCompositionChanged()
+    private final Map<Item, FlatBom> flatBomCache = new ConcurrentHashMap<>();
+    private long flatBomEpoch = 0; //Guarded by flatBomCache. Bumped on every invalidation so a build that raced one is not cached
 
-                if (!isSuperset) {
-                    solutions.add(counted);
-                    if(solutions.size() >= MAX_SOLUTIONS) break outerLoop;
-                }
-            }
+    public FlatBom getFlatBom(Item item) {
+        FlatBom cached = flatBomCache.get(item);
+        if (cached != null && cached.getVersion() == item.getCompositionVersion()) {
+            return cached;
         }
 
-        return solutions;
-    }
-    //Give all possible Combinations of a list,
-    //If list = 1,2,3,4 and amount is 2, then it will return
-    // 11, 12, 13, 14, 22, 23, 24, 33, 34, 44 without duplicates
-    <T> List<List<T>> getAllPossibleCombinations(List<T> list, int length) {
-        List<List<T>> result = new ArrayList<>();
-        getCombination(list, length, 0, new ArrayList<>(), result);
-        return result;
-    }
-    private <T> void getCombination(List<T> list,
-                              int length,
-                              int start,
-                              List<T> current,
-                              List<List<T>> result) {
-        if (length == 0) {
-            result.add(new ArrayList<>(current));
-            return;
+        long epoch;
+        synchronized (flatBomCache) {
+            epoch = flatBomEpoch;
+        }
+        int version = item.getCompositionVersion();
+        FlatBom built;
+        if (!item.isComposite()) {
+            built = new FlatBom(item, version);
+        } else {
+            Map<Item, Integer> totals = new LinkedHashMap<>();
+            for (Map.Entry<Item, Integer> component : item.getComposedOf().entrySet()) {
+                getFlatBom(component.getKey()).addTo(totals, component.getValue());
+            }
+            built = new FlatBom(totals, version);
         }
 
-        for (int i = start; i < list.size(); i++) {
-            current.add(list.get(i));
-            getCombination(list, length - 1, i, current, result);
-            current.remove(current.size() - 1);
+        synchronized (flatBomCache) {
+            if (epoch == flatBomEpoch) {
+                flatBomCache.put(item, built);
+            }
         }
+        return built;
     }
-    //Returns the composition of items in from elementary parts
-    //A is composed of 2C and 1 B and each B is composed of 3 D and each. So getBaseComposition of A is 2 C, 3 D.
-    // So getBaseComposition of (1A) = 2C, 3D
-    private transient final Map<Item, Map<Item, Integer>> baseCompositionCache = new HashMap<>();//Cache items we already broke down into parts, but only for 1
-    public Map<Item, Integer> getBaseComposition(Item item, int amount) {
-        Map<Item, Integer> baseUnit = baseCompositionCache.get(item);
-        if (baseUnit == null) {
-            baseUnit = new HashMap<>();
-
-            if (!item.isComposite()) {
-                baseUnit.put(item, 1);
-            } else {
-                for (Map.Entry<Item, Integer> component : item.getComposedOf().entrySet()) {
-                    Item subItem = component.getKey();
-                    int componentAmount = component.getValue();
-
-                    Map<Item, Integer> subMap = getBaseComposition(subItem, 1);
-                    for (Map.Entry<Item, Integer> entry : subMap.entrySet()) {
-                        baseUnit.merge(entry.getKey(), entry.getValue() * componentAmount, Integer::sum);
-                    }
-                }
-            }
 
-            baseCompositionCache.put(item, baseUnit);
-        }
-        if (amount == 1) {
-            return new HashMap<>(baseUnit);
+    //Called by Item whenever its recipe changes
+    //Ranks and where used first, the cache invalidation below reads them
+    void onCompositionChanged(Item item, Collection<Item> previousComponents) {
+        if (!compositionOrder.componentsChanged(item)) {
+            System.out.println("ERROR: Recipe of " + item.getName() + " (Serial: " + item.getSerial() + ") contains itself");
         }
+        whereUsedIndex.recipeChanged(item, previousComponents);
+        buildableIndex.invalidate(item);
+        onDetailsChanged(item);
+        synchronized (flatBomCache) {
+            flatBomEpoch++;
+            if (flatBomCache.isEmpty()) return; //Nothing to drop, the common case while loading
 
-        Map<Item, Integer> scaled = new HashMap<>();
-        for (Map.Entry<Item, Integer> entry : baseUnit.entrySet()) {
-            scaled.put(entry.getKey(), entry.getValue() * amount);
+            flatBomCache.remove(item);
+            forEachWhereUsed(item, flatBomCache::remove);
         }
-        return scaled;
     }
 
     public void mergeInto(Map<Item, Integer> target, Map<Item, Integer> source) {
@@ -747,128 +836,73 @@ public class Inventory {
             target.merge(entry.getKey(), entry.getValue(), Integer::sum);
         }
     }
+    //One walk of the bom: what comes from stock, what gets built and what is missing. See AllocationPlan
+    public AllocationPlan planAllocation(Item item, int qty) {
+        return new AllocationPlan(this::getAvailableQuantity, item, qty, false);
+    }
+    //Same plan against what is left after a pending transaction
+    public AllocationPlan planAllocation(Item item, int qty, InventoryTransaction tx) {
+        return new AllocationPlan(tx::getAvailableQuantity, item, qty, false);
+    }
     // Recursively checks stock availability for an item and its subcomponents.
-    public Map<Item, Integer> getAmountToReduceStockRecursive(Item item, int qty) {
-        if (!isItemInStockRecursive(item, qty)) {
+    // Nothing is changed until the transaction is committed, what it already took is not counted as available
+    public Map<Item, Integer> getAmountToReduceStockRecursive(Item item, int qty, InventoryTransaction tx) {
+        AllocationPlan plan = planAllocation(item, qty, tx);
+        if (!plan.isInStock()) {
             System.out.println("ERROR : getAmountToReduceStockRecursive called when item is not in stock recursively");
             return new HashMap<>(); //Return empty, but this should not happen
         }
-
-        Map<Item, Integer> itemsToShip = new HashMap<>();
-
-        int availableDirectly = getAvailableQuantity(item);
-        int amountToReduceDirectly = Math.min(qty, availableDirectly);
-
-        // Try to reduce stock directly if available
-        if (amountToReduceDirectly > 0) {
-            decreaseItemAmount(item, amountToReduceDirectly);
-            itemsToShip.put(item, amountToReduceDirectly);
-        }
-
-        int remainingQtyToBuild = qty - amountToReduceDirectly;
-
-        if (remainingQtyToBuild > 0) {
-            // Try to fulfill using subcomponents
-            for (Map.Entry<Item, Integer> entry : item.getComposedOf().entrySet()) {
-                Item componentItem = entry.getKey();
-                int neededQty = remainingQtyToBuild * entry.getValue();
-
-                Map<Item, Integer> partsUsed =
-                        getAmountToReduceStockRecursive(componentItem, neededQty);
-
-                mergeInto(itemsToShip, partsUsed);
-            }
-        }
-
-        return itemsToShip;
+        plan.applyTo(tx);
+        return new HashMap<>(plan.getFromStock());
     }
     //If an item is not in stock, what are we missing?
     //Only returns non-composite items that can be used to build
     public Map<Item, Integer> getMissingItemsRecursive(Item item, int qty) {
-        if (isItemInStockRecursive(item, qty)) {
+        AllocationPlan plan = planAllocation(item, qty);
+        if (plan.isInStock()) {
             System.out.println("ERROR : getMissingItemsRecursive called when item is in stock recursively");
-            return new HashMap<>();
-        }
-
-        Map<Item, Integer> missing = new HashMap<>();
-        int available = getAvailableQuantity(item);
-
-        //We simply don't have enough, base case
-        if (!item.isComposite()) {
-            int shortage = qty - available;
-            if (shortage > 0) {
-                missing.put(item, shortage);
-            }
-            return missing;
-        }
-
-        int shortage = qty - available;
-        if (shortage <= 0) {
-            return missing;
-        }
-
-        for (Map.Entry<Item, Integer> entry : item.getComposedOf().entrySet()) {
-            Item component = entry.getKey();
-            int componentQtyNeeded = shortage * entry.getValue();
-
-            if (isItemInStockRecursive(component, componentQtyNeeded)) { //If in stock, great!
-                continue;
-            }
-
-            Map<Item, Integer> componentMissing =
-                    getMissingItemsRecursive(component, componentQtyNeeded); //Get what's missing
-
-            mergeInto(missing, componentMissing);
         }
-
-        return missing;
+        return new HashMap<>(plan.getMissing());
+    }
+    //Net part requirements for a whole demand (item -> units wanted) against free stock, see BomExplosion
+    public BomExplosion explodeBom(Map<Item, Integer> demand) {
+        return explodeBom(demand, Map.of(), true);
+    }
+    //incoming is stock on its way. netOfReserved false when the demand already holds the orders stock is reserved for
+    public BomExplosion explodeBom(Map<Item, Integer> demand, Map<Item, Integer> incoming, boolean netOfReserved) {
+        return new BomExplosion(demand, incoming, snapshot.get(), netOfReserved);
+    }
+    //Units that could be shipped right now, from free stock plus what can be built from components
+    //Cached per item and only recomputed after something under it changed
+    public int getBuildableQuantity(Item item) {
+        if (item == null || !hasItem(item)) return 0;
+        return buildableIndex.get(item);
     }
     // Recursively checks stock availability for an item and its subcomponents.
     public boolean isItemInStockRecursive(Item item, int amountNeeded) {
-        Map<Item, Integer> totalReqs = new HashMap<>();
-        return isItemInStockRecHelper(item, amountNeeded, totalReqs);
+        return isItemInStockRecursive(item, amountNeeded, null);
     }
-    private boolean isItemInStockRecHelper(Item item, int amountNeeded, Map<Item, Integer> totalRequirements) {
-        int inStock = getAvailableQuantity(item);
-
-        int alreadyReserved = totalRequirements.getOrDefault(item, 0);
-        int availableForUse = inStock - alreadyReserved;
-
-        int canUseDirectly = Math.min(availableForUse, amountNeeded);
-        int stillNeeded = amountNeeded - canUseDirectly;
-
-        if (canUseDirectly > 0) {
-            totalRequirements.put(item, alreadyReserved + canUseDirectly);
-        }
-        if (stillNeeded == 0) {
-            return true;
-        }
-        if (!item.isComposite()) {
-            return false;
-        }
-
-        for (Map.Entry<Item, Integer> entry : item.getComposedOf().entrySet()) {
-            Item component = entry.getKey();
-            int componentNeeded = entry.getValue() * stillNeeded;
-
-            if (!isItemInStockRecHelper(component, componentNeeded, totalRequirements)) {
-                return false;
-            }
-        }
-
-        return true;
+    //Same check against what is left after a pending transaction
+    //Stops at the first missing part, use planAllocation() when the shortages or reduction are needed too
+    public boolean isItemInStockRecursive(Item item, int amountNeeded, InventoryTransaction tx) {
+        ToIntFunction<Item> available = tx == null ? this::getAvailableQuantity : tx::getAvailableQuantity;
+        return new AllocationPlan(available, item, amountNeeded, true).isInStock();
     }
-    public void addChangeListener(ItemListener listener) {
-        listeners.add(listener);
-    }
-
-    private void notifyListeners(Item i) {
-        for (ItemListener listener : listeners) {
-            listener.onChange(i);
+    //Where used is built once at the end instead of after every recipe
+    public void convertComposedSerialToItem() throws Exception {
+        whereUsedIndex.defer();
+        try {
+            linkComposedSerials();
+        } finally {
+            whereUsedIndex.rebuild(MainInventory.keySet());
+            buildableIndex.clear(); //Invalidated against the unfinished index
+            synchronized (flatBomCache) {
+                flatBomEpoch++;
+                flatBomCache.clear();
+            }
         }
     }
-
-    public void convertComposedSerialToItem() throws Exception {
+    private void linkComposedSerials() throws Exception {
         for(Item i : MainInventory.keySet()){
             Map<Item,Integer> composedOf = new HashMap<>();
             for(Map.Entry<String,Integer> serializedComposedOf : i.getComposedOfSerialized().entrySet()){
@@ -887,10 +921,4 @@ public class Inventory {
             i.replaceComposedOf(composedOf);
         }
     }
-
-
-    @FunctionalInterface
-    public interface ItemListener {
-        void onChange(Item item);
-    }
 }
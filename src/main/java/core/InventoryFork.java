@@ -0,0 +1,157 @@
+package core;
+
+import platform.BaseSeller;
+import platform.PlatformType;
+
+import java.util.*;
+
+//Copy on write what-if copy of the inventory's stock, get one from Inventory.fork()
+//It starts as the latest snapshot, so forking copies nothing. The first change to an item copies only that item's
+//quantity and reserved amount into the fork. The real ledger, reservations and logs are never touched.
+//The catalog (items, recipes, skus, cached boms) is shared with the inventory, not copied.
+//Reservations made before the fork are in the reserved amounts but not per order, releasing one of those does nothing here.
+//Not thread safe, a fork is meant for one simulation on one thread
+public final class InventoryFork implements OrderStock {
+
+    private final Inventory inventory;
+    private final InventorySnapshot base;
+
+    //Item -> {quantity, reserved}, copied from the base on the first change
+    private final Map<Item, int[]> changed = new HashMap<>();
+
+    //Item -> (OrderID -> quantity) for orders reserved in this fork only
+    private final Map<Item, Map<String, Integer>> orderReservations = new HashMap<>();
+
+    InventoryFork(Inventory inventory, InventorySnapshot base) {
+        this.inventory = inventory;
+        this.base = base;
+    }
+
+    //-------------------------------<Reading>-------------------------------
+    public InventorySnapshot getBase() {
+        return base;
+    }
+
+    public boolean hasItem(Item item) {
+        return base.contains(item);
+    }
+
+    public int getQuantity(Item item) {
+        int[] cell = changed.get(item);
+        return cell != null ? cell[0] : base.getQuantity(item);
+    }
+
+    public int getTotalReservedForItem(Item item) {
+        int[] cell = changed.get(item);
+        return cell != null ? cell[1] : base.getReserved(item);
+    }
+
+    @Override
+    public int getAvailableQuantity(Item item) {
+        int[] cell = changed.get(item);
+        return cell != null ? cell[0] - cell[1] : base.getAvailable(item);
+    }
+
+    //Items whose quantity or reserved amount differs from the inventory at the time of the fork
+    public Set<Item> getChangedItems() {
+        Set<Item> result = new LinkedHashSet<>();
+        for (Map.Entry<Item, int[]> e : changed.entrySet()) {
+            int[] cell = e.getValue();
+            if (cell[0] != base.getQuantity(e.getKey()) || cell[1] != base.getReserved(e.getKey())) {
+                result.add(e.getKey());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Item getItemByPlatformAndSKU(PlatformType platform, String sku) {
+        Item item = inventory.getItemByPlatformAndSKU(platform, sku);
+        return item != null && base.contains(item) ? item : null; //Created after the fork
+    }
+    //-------------------------------</Reading>-------------------------------
+
+
+    //-------------------------------<What if>-------------------------------
+    public void setQuantity(Item item, int quantity) {
+        if (!base.contains(item)) return;
+        cellOf(item)[0] = quantity;
+    }
+
+    //Negative amounts take stock away
+    public void addItemAmount(Item item, int amount) {
+        if (!base.contains(item)) return;
+        cellOf(item)[0] += amount;
+    }
+
+    private int[] cellOf(Item item) {
+        return changed.computeIfAbsent(item, k -> new int[]{base.getQuantity(k), base.getReserved(k)});
+    }
+    //-------------------------------</What if>-------------------------------
+
+
+    //-------------------------------<Reservations>-------------------------------
+    //Same rules as the Inventory methods of the same name
+    @Override
+    public boolean tryReserveItemForOrder(Item item, String orderId, int quantity) {
+        if (item == null || !base.contains(item) || quantity <= 0) return false;
+        if (getAvailableQuantity(item) < quantity) return false;
+        cellOf(item)[1] += quantity;
+        orderReservations.computeIfAbsent(item, k -> new HashMap<>()).merge(orderId, quantity, Integer::sum);
+        return true;
+    }
+
+    @Override
+    public void reserveItemsForOrder(PlatformType platform, BaseSeller.Order order) {
+        Map<Item, Integer> totals = new HashMap<>();
+        for (BaseSeller.OrderPacket op : order.getItems()) {
+            Item item = getItemByPlatformAndSKU(platform, op.sku());
+            if (item != null) {
+                totals.merge(item, op.quantity(), Integer::sum);
+            }
+        }
+        for (Map.Entry<Item, Integer> e : totals.entrySet()) {
+            Integer previous = orderReservations
+                    .computeIfAbsent(e.getKey(), k -> new HashMap<>())
+                    .put(order.getOrderId(), e.getValue());
+            reserve(e.getKey(), e.getValue() - (previous == null ? 0 : previous));
+        }
+    }
+
+    @Override
+    public void releaseReservationForOrder(PlatformType platform, BaseSeller.Order order) {
+        for (BaseSeller.OrderPacket op : order.getItems()) {
+            Item item = getItemByPlatformAndSKU(platform, op.sku());
+            if (item == null) continue;
+            Map<String, Integer> reservationsForItem = orderReservations.get(item);
+            if (reservationsForItem == null) continue;
+            Integer released = reservationsForItem.remove(order.getOrderId());
+            if (released != null) reserve(item, -released);
+            if (reservationsForItem.isEmpty()) orderReservations.remove(item);
+        }
+    }
+
+    //Reserved never goes under 0, like the ledger
+    private void reserve(Item item, int delta) {
+        int[] cell = cellOf(item);
+        cell[1] = Math.max(0, cell[1] + delta);
+    }
+    //-------------------------------</Reservations>-------------------------------
+
+
+    //-------------------------------<Boms>-------------------------------
+    public AllocationPlan planAllocation(Item item, int qty) {
+        return new AllocationPlan(this::getAvailableQuantity, item, qty, false);
+    }
+
+    @Override
+    public boolean isItemInStockRecursive(Item item, int amountNeeded) {
+        return new AllocationPlan(this::getAvailableQuantity, item, amountNeeded, true).isInStock();
+    }
+
+    @Override
+    public List<Map<Item, Integer>> possibleBreakDownsForItem(Item neededItem, int amountNeeded) {
+        return inventory.possibleBreakDownsForItem(neededItem, amountNeeded, this::getAvailableQuantity);
+    }
+    //-------------------------------</Boms>-------------------------------
+}
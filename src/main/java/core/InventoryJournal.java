@@ -0,0 +1,9 @@
+package core;
+
+//Told about every change that has to survive a crash, right after it is made, see Inventory.setJournal()
+//Only the item is passed, the journal reads the current quantity or details itself when it writes them out
+public interface InventoryJournal {
+    void quantityChanged(Item item);
+    void itemChanged(Item item); //Created, renamed, new recipe, trigger, skus or image
+    void itemRemoved(Item item);
+}
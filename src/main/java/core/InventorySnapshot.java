@@ -0,0 +1,186 @@
+package core;
+
+import java.util.*;
+
+//Immutable point in time view of every item with its quantity and reserved amount, get the latest from Inventory.getSnapshot()
+//Entries are kept by quantity slot in a 32 way trie. A change copies only the path to its slot (one leaf and a few
+//small nodes), everything else is shared with the snapshot before it. Readers (the view window, saves, exports)
+//hold one for as long as they like without copying anything and without ever blocking a writer
+public final class InventorySnapshot {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    static final InventorySnapshot EMPTY = new InventorySnapshot(new Leaf(), 0, 0, 0);
+
+    private static final class Leaf {
+        final Item[] items = new Item[WIDTH];
+        final long[] cells = new long[WIDTH]; //Packed like the ledger, see QuantityLedger
+
+        Leaf copy() {
+            Leaf c = new Leaf();
+            System.arraycopy(items, 0, c.items, 0, WIDTH);
+            System.arraycopy(cells, 0, c.cells, 0, WIDTH);
+            return c;
+        }
+    }
+
+    private final Object root; //A Leaf when shift is 0, otherwise an Object[] of children (Leaf or Object[], null when empty)
+    private final int shift;
+    private final int size;
+    private final long version;
+
+    private InventorySnapshot(Object root, int shift, int size, long version) {
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+        this.version = version;
+    }
+
+    //-------------------------------<Reading>-------------------------------
+    //Bumped on every published change
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(Item item) {
+        return slotOf(item) >= 0;
+    }
+
+    public int getQuantity(Item item) {
+        int slot = slotOf(item);
+        return slot < 0 ? 0 : QuantityLedger.quantityOf(leafAt(root, shift, slot).cells[slot & MASK]);
+    }
+
+    public int getReserved(Item item) {
+        int slot = slotOf(item);
+        return slot < 0 ? 0 : QuantityLedger.reservedOf(leafAt(root, shift, slot).cells[slot & MASK]);
+    }
+
+    public int getAvailable(Item item) {
+        int slot = slotOf(item);
+        if (slot < 0) return 0;
+        long cell = leafAt(root, shift, slot).cells[slot & MASK];
+        return QuantityLedger.quantityOf(cell) - QuantityLedger.reservedOf(cell);
+    }
+
+    //Every item in slot order
+    public List<Item> getItems() {
+        List<Item> items = new ArrayList<>(size);
+        forEach((item, quantity, reserved) -> items.add(item));
+        return items;
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(Item item, int quantity, int reserved);
+    }
+
+    public void forEach(EntryConsumer consumer) {
+        forEach(root, shift, consumer);
+    }
+
+    private static void forEach(Object node, int shift, EntryConsumer consumer) {
+        if (node == null) return;
+        if (shift == 0) {
+            Leaf leaf = (Leaf) node;
+            for (int i = 0; i < WIDTH; i++) {
+                Item item = leaf.items[i];
+                if (item != null) {
+                    consumer.accept(item, QuantityLedger.quantityOf(leaf.cells[i]), QuantityLedger.reservedOf(leaf.cells[i]));
+                }
+            }
+            return;
+        }
+        for (Object child : (Object[]) node) {
+            forEach(child, shift - BITS, consumer);
+        }
+    }
+
+    //The item's current slot is tried first. An item removed or moved since this snapshot was taken falls back to a scan
+    private int slotOf(Item item) {
+        if (item == null) return -1;
+        int slot = item.getInventorySlot();
+        if (slot >= 0) {
+            Leaf leaf = leafAt(root, shift, slot);
+            if (leaf != null && leaf.items[slot & MASK] == item) return slot;
+        }
+        return scan(root, shift, 0, item);
+    }
+
+    private static int scan(Object node, int shift, int base, Item item) {
+        if (node == null) return -1;
+        if (shift == 0) {
+            Item[] items = ((Leaf) node).items;
+            for (int i = 0; i < WIDTH; i++) {
+                if (items[i] != null && items[i].equals(item)) return base + i;
+            }
+            return -1;
+        }
+        Object[] children = (Object[]) node;
+        for (int i = 0; i < WIDTH; i++) {
+            int found = scan(children[i], shift - BITS, base + (i << shift), item);
+            if (found >= 0) return found;
+        }
+        return -1;
+    }
+
+    //Null when the slot is past the end of the trie or in an empty branch
+    private static Leaf leafAt(Object node, int shift, int slot) {
+        if ((slot >>> BITS) >>> shift != 0) return null;
+        for (int level = shift; level > 0 && node != null; level -= BITS) {
+            node = ((Object[]) node)[(slot >>> level) & MASK];
+        }
+        return (Leaf) node;
+    }
+    //-------------------------------</Reading>-------------------------------
+
+
+    //-------------------------------<Publishing>-------------------------------
+    //A new snapshot with these slots copied from the ledger as they are now, one version later
+    InventorySnapshot with(int[] slots, QuantityLedger ledger) {
+        Object newRoot = root;
+        int newShift = shift;
+        int newSize = size;
+        for (int slot : slots) {
+            if (slot < 0) continue;
+            while ((slot >>> BITS) >>> newShift != 0) { //Grow a level, the old root becomes the first child
+                Object[] grown = new Object[WIDTH];
+                grown[0] = newRoot;
+                newRoot = grown;
+                newShift += BITS;
+            }
+            Item item = ledger.itemAt(slot);
+            long cell = item == null ? 0L : ledger.cellAt(slot);
+
+            Leaf before = leafAt(newRoot, newShift, slot);
+            Item previous = before == null ? null : before.items[slot & MASK];
+            if (previous == item && (before == null || before.cells[slot & MASK] == cell)) continue; //Unchanged
+
+            if (previous == null && item != null) newSize++;
+            if (previous != null && item == null) newSize--;
+            newRoot = set(newRoot, newShift, slot, item, cell);
+        }
+        return new InventorySnapshot(newRoot, newShift, newSize, version + 1);
+    }
+
+    //Path copy, the nodes off the path are shared
+    private static Object set(Object node, int shift, int slot, Item item, long cell) {
+        if (shift == 0) {
+            Leaf leaf = node == null ? new Leaf() : ((Leaf) node).copy();
+            leaf.items[slot & MASK] = item;
+            leaf.cells[slot & MASK] = cell;
+            return leaf;
+        }
+        Object[] children = node == null ? new Object[WIDTH] : ((Object[]) node).clone();
+        int index = (slot >>> shift) & MASK;
+        children[index] = set(children[index], shift - BITS, slot, item, cell);
+        return children;
+    }
+    //-------------------------------</Publishing>-------------------------------
+}
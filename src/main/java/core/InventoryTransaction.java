@@ -0,0 +1,118 @@
+package core;
+
+import java.util.*;
+
+//Collects many quantity changes and applies them to the inventory all at once
+//Breaking down kits, composing and shipping an order each touch many items. Instead of one mutation,
+//one log and one listener notification per item, everything goes in here and commit() validates it all up front,
+//applies it under one lock and writes a single log. If any item can't be applied everything is rolled back.
+//Get one from Inventory.beginTransaction()
+public class InventoryTransaction {
+
+    private final Inventory inventory;
+    private final String orderId; //Stock reserved for this order counts as free stock. Null when not for an order
+
+    //Item -> signed change in quantity
+    private final Map<Item, Integer> deltas = new LinkedHashMap<>();
+    private boolean finished = false;
+
+    InventoryTransaction(Inventory inventory, String orderId) {
+        this.inventory = inventory;
+        this.orderId = orderId;
+    }
+
+    //-------------------------------<Collecting>-------------------------------
+    public InventoryTransaction add(Item item, int amount) {
+        return change(item, amount);
+    }
+
+    public InventoryTransaction remove(Item item, int amount) {
+        return change(item, -amount);
+    }
+
+    //Positive values are added, negative values are removed
+    public InventoryTransaction addAll(Map<Item, Integer> signedAmounts) {
+        for (Map.Entry<Item, Integer> e : signedAmounts.entrySet()) {
+            change(e.getKey(), e.getValue());
+        }
+        return this;
+    }
+
+    private InventoryTransaction change(Item item, int delta) {
+        if (finished) {
+            throw new IllegalStateException("ERROR: Transaction was already committed or rolled back");
+        }
+        if (item == null) {
+            throw new IllegalArgumentException("ERROR: Null item added to an inventory transaction");
+        }
+        if (delta == 0) return this;
+
+        deltas.merge(item, delta, Integer::sum);
+        if (deltas.get(item) == 0) {
+            deltas.remove(item);
+        }
+        return this;
+    }
+    //-------------------------------</Collecting>-------------------------------
+
+
+    //-------------------------------<Pending view>-------------------------------
+    public int getDelta(Item item) {
+        return deltas.getOrDefault(item, 0);
+    }
+
+    //Quantity the item will have once this commits
+    public int getPendingQuantity(Item item) {
+        return inventory.getQuantity(item) + getDelta(item);
+    }
+
+    //Free stock left for this transaction to use, counting what it already took
+    public int getAvailableQuantity(Item item) {
+        return inventory.getQuantity(item)
+                - Math.max(0, inventory.getTotalReservedForItem(item) - ownReserved(item))
+                + getDelta(item);
+    }
+
+    public Map<Item, Integer> getDeltas() {
+        return Collections.unmodifiableMap(deltas);
+    }
+
+    public boolean isEmpty() {
+        return deltas.isEmpty();
+    }
+
+    String getOrderId() {
+        return orderId;
+    }
+
+    int ownReserved(Item item) {
+        return orderId == null ? Integer.MAX_VALUE : inventory.getReservedForOrder(item, orderId);
+    }
+    //-------------------------------</Pending view>-------------------------------
+
+
+    //-------------------------------<Commit>-------------------------------
+    //Applies everything and writes one log. Throws IllegalStateException and changes nothing if any item fails
+    public void commit(Log.LogType type, int amount, String message, String serial) {
+        commitSilent();
+        if (inventory.logManager != null) {
+            inventory.logManager.createLog(type, amount, message, serial);
+        }
+    }
+
+    //Applies everything without a log, for callers that write their own summary log
+    public void commitSilent() {
+        if (finished) {
+            throw new IllegalStateException("ERROR: Transaction was already committed or rolled back");
+        }
+        finished = true;
+        inventory.applyTransaction(this);
+    }
+
+    //Drops everything collected
+    public void rollback() {
+        deltas.clear();
+        finished = true;
+    }
+    //-------------------------------</Commit>-------------------------------
+}
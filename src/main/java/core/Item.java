@@ -6,6 +6,7 @@ import javax.swing.ImageIcon;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
 import com.google.gson.annotations.Expose;
 import constants.Constants;
 
@@ -27,41 +28,66 @@ public class Item {
     private String ebaySellerSKU;
 
     @Expose
-    private final Map<String, Integer> composedOfSerialized; //Used for saving and loading
+    private Map<String, Integer> composedOfSerialized; //Only used for loading, dropped once the components are resolved
 
-    private transient Map<Item,Integer> composedOf;
-    private final transient Set<Item> composesInto = new HashSet<>();
+    private transient Composition composedOf; //Null until the serialized components are resolved
+    private final transient Composition.Parents composesInto = new Composition.Parents();
 
     @Expose
     private String iconPath;   //path to image file
 
     private transient final ItemManager itemManager;
 
+    private transient volatile int inventorySlot = -1; //Index into the inventory quantity store, -1 when not registered
+
+    private transient volatile int compositionVersion = 0; //Bumped on every recipe change. Flattened boms built from an older version are stale
+
     //-------------------------------<Getters and Setters>-------------------------------
     public String getName() { return name; }
-    public void setName(String name) { this.name = name; }
+    public void setName(String name) { this.name = name; searchKeysChanged(); }
 
     public String getSerial() { return serial; }
 
     public String getWalmartSellerSKU() {return walmartSellerSKU;}
-    public void setWalmartSellerSKU(String walmartSellerSKU) {this.walmartSellerSKU = walmartSellerSKU;}
+    public void setWalmartSellerSKU(String walmartSellerSKU) {this.walmartSellerSKU = walmartSellerSKU; searchKeysChanged();}
 
     public String getAmazonSellerSKU() {return amazonSellerSKU;}
-    public void setAmazonSellerSKU(String amazonSellerSKU) {this.amazonSellerSKU = amazonSellerSKU;}
+    public void setAmazonSellerSKU(String amazonSellerSKU) {this.amazonSellerSKU = amazonSellerSKU; searchKeysChanged();}
 
     public String getEbaySellerSKU() {return ebaySellerSKU;}
-    public void setEbaySellerSKU(String ebaySellerSKU) {this.ebaySellerSKU = ebaySellerSKU;}
+    public void setEbaySellerSKU(String ebaySellerSKU) {this.ebaySellerSKU = ebaySellerSKU; searchKeysChanged();}
 
+    private void searchKeysChanged() {
+        if (itemManager != null && itemManager.inventory != null) {
+            itemManager.inventory.onSearchKeysChanged(this);
+        }
+    }
+
+    //Read only, change it with replaceComposedOf
     public Map<Item, Integer> getComposedOf() { return composedOf; }
+    Composition getComposition() { return composedOf != null ? composedOf : Composition.EMPTY; } //Indexed access for bulk walks
     public Set<Item> getComposesInto() { return composesInto; }
 
-    public Map<String,Integer> getComposedOfSerialized() { return composedOfSerialized; }
+    //Built on demand for saving once the components are resolved
+    public Map<String,Integer> getComposedOfSerialized() {
+        if (composedOfSerialized != null) return composedOfSerialized;
+        Map<String,Integer> serialized = new LinkedHashMap<>();
+        if (composedOf != null) {
+            for (int i = 0; i < composedOf.size(); i++) {
+                serialized.put(composedOf.partAt(i).serial, composedOf.quantityAt(i));
+            }
+        }
+        return serialized;
+    }
 
     public String getImagePath() {
         return iconPath;
     }
     public void setImagePath(String newPath) {
         iconPath = newPath;
+        if (itemManager != null && itemManager.inventory != null) {
+            itemManager.inventory.onDetailsChanged(this);
+        }
     }
     public ImageIcon getIcon(int maxSize) {
 
@@ -86,7 +112,17 @@ public class Item {
         }
     }
     public int getLowStockTrigger() { return lowStockTrigger;}
-    public void setLowStockTrigger(int lowST){lowStockTrigger = lowST;}
+    public void setLowStockTrigger(int lowST){
+        lowStockTrigger = lowST;
+        if (itemManager != null && itemManager.inventory != null) {
+            itemManager.inventory.onLowStockTriggerChanged(this);
+        }
+    }
+
+    public int getCompositionVersion() { return compositionVersion; }
+
+    int getInventorySlot() { return inventorySlot; }
+    void setInventorySlot(int slot) { inventorySlot = slot; }
 
 
     //-------------------------------</Getters and Setters>-------------------------------
@@ -115,18 +151,57 @@ public class Item {
                 System.out.println("ERROR: Cannot compose with itself: " + component .getName() + " (Serial: " + component .getSerial() + ")");
                 continue;
             }
+            if (itemManager != null && itemManager.inventory != null && itemManager.inventory.containsItemRecursively(component, serial)) {
+                System.out.println("ERROR: Cannot compose with an item that contains this item: " + component .getName() + " (Serial: " + component .getSerial() + ")");
+                continue;
+            }
             valid.merge(component ,qty, Integer::sum);
         }
 
-        composedOf = valid;
+        //Components dropped from the recipe no longer compose into this
+        Composition old = composedOf;
+        if (old != null) {
+            for (int i = 0; i < old.size(); i++) {
+                Item component = old.partAt(i);
+                if (!valid.containsKey(component)) {
+                    component.composesInto.unlink(this);
+                }
+            }
+        }
+
+        composedOf = Composition.of(valid);
+        composedOfSerialized = null; //Components are resolved, the save format is rebuilt from them when needed
 
-        composedOfSerialized.clear();
-        for(Map.Entry<Item, Integer> e : composedOf.entrySet()){
-            composedOfSerialized.put(
-                    e.getKey().serial,
-                    e.getValue());
+        //Only the new components need linking, the kept ones already know
+        for (Item component : valid.keySet()) {
+            if (old == null || !old.containsKey(component)) {
+                component.composesInto.addNew(this);
+            }
+        }
+        compositionChanged(old == null ? Collections.emptySet() : old.keySet());
+    }
+    //Used when a component is deleted from the inventory
+    void removeComponent(Item component) {
+        if (composedOf == null || !composedOf.containsKey(component)) return;
+        composedOf = composedOf.without(component);
+        component.composesInto.unlink(this);
+        compositionChanged(Collections.singleton(component));
+    }
+    //Used when this item is deleted from the inventory. Unlinks it from both sides without touching the parents' recipes
+    void detachComposition() {
+        if (composedOf != null) {
+            for (int i = 0; i < composedOf.size(); i++) {
+                composedOf.partAt(i).composesInto.unlink(this);
+            }
+            composedOf = Composition.EMPTY;
+        }
+        composesInto.clearAll();
+    }
+    private void compositionChanged(Collection<Item> previousComponents) {
+        compositionVersion++;
+        if (itemManager != null && itemManager.inventory != null) {
+            itemManager.inventory.onCompositionChanged(this, previousComponents);
         }
-        syncCompositionDependencies();
     }
     public boolean isComposite(){ return composedOf != null && !composedOf.isEmpty();}
     //-------------------------------</Edit Composition>-------------------------------
@@ -147,16 +222,9 @@ public class Item {
         this.serial = serialNum;
         this.lowStockTrigger = lowStockTrigger;
 
-        this.composedOf = composedOf != null ? composedOf : new HashMap<>();
+        this.composedOf = Composition.of(composedOf);
+        this.composedOfSerialized = null;
 
-        composedOfSerialized = new HashMap<>();
-        if(composedOf != null){
-            for(Map.Entry<Item, Integer> e : composedOf.entrySet()){
-                composedOfSerialized.put(
-                        e.getKey().serial,
-                        e.getValue());
-            }
-        }
         this.iconPath = iconPath;
 
         this.amazonSellerSKU = amazonSellerSKU != null ? amazonSellerSKU : "";
@@ -197,9 +265,10 @@ public class Item {
     public void syncCompositionDependencies(){
         if (itemManager == null) throw new IllegalStateException("ERROR: Item Manager is null for item: "+ getName());
         //Make sure all components of this item know what they compose into
-        for (Item component : composedOf.keySet()) {
+        for (int i = 0; i < composedOf.size(); i++) {
+            Item component = composedOf.partAt(i);
             if (component != null && component != this) {
-                component.getComposesInto().add(this);
+                component.composesInto.link(this);
             }
         }
     }
@@ -225,7 +294,9 @@ public class Item {
                 .excludeFieldsWithoutExposeAnnotation()
                 .setPrettyPrinting()
                 .create();
-        return gson.toJson(this);
+        JsonObject json = gson.toJsonTree(this).getAsJsonObject();
+        json.add("composedOfSerialized", gson.toJsonTree(getComposedOfSerialized()));
+        return gson.toJson(json);
     }
     //-------------------------------</Overrides>-------------------------------
 }
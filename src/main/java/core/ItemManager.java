@@ -1,5 +1,6 @@
 package core;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 //Called by Item class and updates Inventory
@@ -68,8 +69,11 @@ public class ItemManager {
 
         int beforeQuantity = inventory.getQuantity(item);
 
-        inventory.processItemMap(remainderComponents);
-        inventory.decreaseItemAmountSilent(item, amountToBreak);
+        //Kept components come back and the kits go, all in one commit
+        inventory.beginTransaction()
+                .addAll(remainderComponents)
+                .remove(item, amountToBreak)
+                .commitSilent();
 
         int afterQuantity = inventory.getQuantity(item);
 
@@ -81,39 +85,61 @@ public class ItemManager {
                 afterQuantity
         );
     }
-    // Takes a list of components (ItemPackets) and assembles them into a single composed item.
-    // Each ItemPacket is consumed from inventory, and the composed item is added.
+    // Composes amount units of an item in a single pass.
+    // Components are checked once against amount x recipe and every decrement plus the composite increment
+    // go through one transaction, so nothing changes if anything is short.
+    // If buildSubAssemblies is true, composite components that are short are first built from their own parts (recursively)
     // Can only add items, cannot create a new item
     // If a new item needs to be created via composition, it must be created before then passed into this method
-    public void composeItem(Item composedItem) {
+    public ComposeResult composeItem(Item composedItem, int amount, boolean buildSubAssemblies) {
         if (composedItem == null || inventory == null) throw new IllegalStateException("ERROR: composeItem called on null item or inventory is null");
+        if (amount <= 0) throw new IllegalArgumentException("amount must be > 0");
 
-        //Verify all components exist in inventory
-        for (Item component : composedItem.getComposedOf().keySet()) {
+        InventoryTransaction tx = inventory.beginTransaction();
+        Map<Item, Integer> subAssembliesBuilt = new LinkedHashMap<>();
+        planComposition(composedItem, amount, buildSubAssemblies, tx, subAssembliesBuilt);
 
-            if (!inventory.hasItem(component)) { //Does item part exist in inventory
-                throw new RuntimeException("ERROR: Unable to find item " + component.getName() + " to compose item: "+ composedItem.getName());
-            }
+        //What actually left the shelf once sub-assemblies built and used in the same pass cancel out
+        Map<Item, Integer> consumed = new LinkedHashMap<>();
+        for (Map.Entry<Item, Integer> e : tx.getDeltas().entrySet()) {
+            if (e.getValue() < 0) consumed.put(e.getKey(), -e.getValue());
+        }
 
-            int amountNeeded = composedItem.getComposedOf().get(component);
+        int beforeQuantity = inventory.getQuantity(composedItem);
+        tx.commitSilent();
+        int afterQuantity = inventory.getQuantity(composedItem);
 
-            int have = inventory.getQuantity(component);
+        return new ComposeResult(consumed, subAssembliesBuilt, beforeQuantity, afterQuantity);
+    }
 
+    private void planComposition(Item composedItem, int amount, boolean buildSubAssemblies,
+                                 InventoryTransaction tx, Map<Item, Integer> subAssembliesBuilt) {
+        for (Map.Entry<Item, Integer> ip : composedItem.getComposedOf().entrySet()) {
+            Item component = ip.getKey();
 
-            if (amountNeeded < have) { //Do we have enough of the item to compose
-                throw new RuntimeException(
-                        "ERROR: Insufficient quantity for '" + component.getName() +
-                                "' (have " + have + ", need " + amountNeeded + ") to compose item: " + composedItem.getName()
-                );
+            if (!inventory.hasItem(component)) { //Does item part exist in inventory
+                throw new RuntimeException("ERROR: Unable to find item " + component.getName() + " to compose item: " + composedItem.getName());
             }
-        }
 
-        for (Map.Entry<Item,Integer> ip : composedItem.getComposedOf().entrySet()){ //We have all the items so consume
-            inventory.decreaseItemAmountSilent(ip.getKey(),ip.getValue());
+            long required = (long) ip.getValue() * (long) amount;
+            if (required > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("ERROR: Too many units of " + component.getName() + " needed to compose " + composedItem.getName());
+            }
+            int needed = (int) required;
+            int have = Math.max(0, tx.getPendingQuantity(component));
+
+            if (needed > have) {
+                if (!buildSubAssemblies || !component.isComposite()) {
+                    throw new RuntimeException("ERROR: Not enough " + component.getName() + " to compose item: " + composedItem.getName() + ". \n" +
+                            "(Amount needed = " + needed + " || Amount available = " + have + ")");
+                }
+                int shortage = needed - have;
+                planComposition(component, shortage, true, tx, subAssembliesBuilt);
+                subAssembliesBuilt.merge(component, shortage, Integer::sum);
+            }
+            tx.remove(component, needed);
         }
-
-        //Add the newly composed item
-        inventory.addItemAmountSilent(composedItem, 1);
+        tx.add(composedItem, amount);
     }
 
     //-------------------------------</Methods>-------------------------------
@@ -122,4 +148,7 @@ public class ItemManager {
         public record BreakdownResult(Map<Item, Integer> original, Map<Item, Integer> used, Map<Item,Integer> remained,
                                       int before, int after) {
     }
+    public record ComposeResult(Map<Item, Integer> consumed, Map<Item, Integer> subAssembliesBuilt,
+                                int before, int after) {
+    }
 }
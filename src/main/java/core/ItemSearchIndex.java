@@ -0,0 +1,166 @@
+package core;
+
+import java.util.*;
+import java.util.function.IntFunction;
+
+//Lookup of items by name, serial and platform SKUs
+//Keys are stored case folded. Exact names go through a hash, substring queries through a trigram index:
+//every 3 character window of every key points at the quantity slots of the items that have it.
+//A query is narrowed to the items having all of its trigrams (smallest list first) and only those are checked with contains.
+//Queries under 3 characters can't be narrowed that way, they check the stored folded keys of every item instead
+class ItemSearchIndex {
+
+    private final IntFunction<Item> itemAtSlot;
+
+    private final Map<Item, String[]> keysOf = new HashMap<>();        //Folded name, serial, amazon, ebay, walmart
+    private final Map<Item, Integer> slotOf = new HashMap<>();         //Slot the item was indexed under
+    private final Map<String, Set<Item>> byName = new HashMap<>();
+    private final Map<Long, SlotList> byTrigram = new HashMap<>();
+
+    ItemSearchIndex(IntFunction<Item> itemAtSlot) {
+        this.itemAtSlot = itemAtSlot;
+    }
+
+    //-------------------------------<Updates>-------------------------------
+    synchronized void add(Item item, int slot) {
+        if (slot < 0) return;
+        if (keysOf.containsKey(item)) remove(item);
+
+        String[] keys = {
+                fold(item.getName()),
+                fold(item.getSerial()),
+                fold(item.getAmazonSellerSKU()),
+                fold(item.getEbaySellerSKU()),
+                fold(item.getWalmartSellerSKU())
+        };
+        keysOf.put(item, keys);
+        slotOf.put(item, slot);
+        if (!keys[0].isEmpty()) byName.computeIfAbsent(keys[0], k -> new HashSet<>()).add(item);
+        for (long gram : trigramsOf(keys)) {
+            byTrigram.computeIfAbsent(gram, k -> new SlotList()).add(slot);
+        }
+    }
+
+    synchronized void remove(Item item) {
+        String[] keys = keysOf.remove(item);
+        Integer slot = slotOf.remove(item);
+        if (keys == null || slot == null) return;
+
+        Set<Item> named = byName.get(keys[0]);
+        if (named != null) {
+            named.remove(item);
+            if (named.isEmpty()) byName.remove(keys[0]);
+        }
+        for (long gram : trigramsOf(keys)) {
+            SlotList slots = byTrigram.get(gram);
+            if (slots == null) continue;
+            slots.remove(slot);
+            if (slots.size == 0) byTrigram.remove(gram);
+        }
+    }
+
+    //Name or a sku changed on an indexed item
+    synchronized void reindex(Item item) {
+        Integer slot = slotOf.get(item);
+        if (slot != null) add(item, slot);
+    }
+    //-------------------------------</Updates>-------------------------------
+
+
+    //-------------------------------<Queries>-------------------------------
+    synchronized List<Item> withName(String name) {
+        Set<Item> named = byName.get(fold(name));
+        return named == null ? new ArrayList<>() : new ArrayList<>(named);
+    }
+
+    //Items with the text anywhere in their name, serial or one of their skus
+    synchronized Set<Item> containing(String text) {
+        String query = fold(text);
+        Set<Item> result = new HashSet<>();
+        if (query.isEmpty()) {
+            result.addAll(keysOf.keySet());
+            return result;
+        }
+        if (query.length() < 3) {
+            for (Map.Entry<Item, String[]> e : keysOf.entrySet()) {
+                if (anyContains(e.getValue(), query)) result.add(e.getKey());
+            }
+            return result;
+        }
+
+        List<SlotList> lists = new ArrayList<>();
+        for (long gram : trigramsOf(new String[]{query})) {
+            SlotList slots = byTrigram.get(gram);
+            if (slots == null) return result; //A trigram nobody has
+            lists.add(slots);
+        }
+        lists.sort(Comparator.comparingInt(l -> l.size));
+
+        SlotList smallest = lists.get(0);
+        candidates:
+        for (int i = 0; i < smallest.size; i++) {
+            int slot = smallest.slots[i];
+            for (int l = 1; l < lists.size(); l++) {
+                if (!lists.get(l).contains(slot)) continue candidates;
+            }
+            Item item = itemAtSlot.apply(slot);
+            if (item == null) continue;
+            String[] keys = keysOf.get(item);
+            if (keys != null && anyContains(keys, query)) result.add(item); //Trigrams can match out of order
+        }
+        return result;
+    }
+    //-------------------------------</Queries>-------------------------------
+
+
+    //-------------------------------<Helpers>-------------------------------
+    static String fold(String s) {
+        return s == null ? "" : s.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean anyContains(String[] keys, String query) {
+        for (String k : keys) {
+            if (k.contains(query)) return true;
+        }
+        return false;
+    }
+
+    //Distinct trigrams of the keys, three chars packed into a long
+    private static Set<Long> trigramsOf(String[] keys) {
+        Set<Long> grams = new HashSet<>();
+        for (String k : keys) {
+            for (int i = 0; i + 3 <= k.length(); i++) {
+                grams.add(((long) k.charAt(i) << 32) | ((long) k.charAt(i + 1) << 16) | k.charAt(i + 2));
+            }
+        }
+        return grams;
+    }
+
+    //Sorted slots without boxing, a trigram list can hold most of the inventory
+    private static final class SlotList {
+        int[] slots = new int[4];
+        int size = 0;
+
+        void add(int slot) {
+            int at = Arrays.binarySearch(slots, 0, size, slot);
+            if (at >= 0) return;
+            at = -at - 1;
+            if (size == slots.length) slots = Arrays.copyOf(slots, size * 2);
+            System.arraycopy(slots, at, slots, at + 1, size - at);
+            slots[at] = slot;
+            size++;
+        }
+
+        void remove(int slot) {
+            int at = Arrays.binarySearch(slots, 0, size, slot);
+            if (at < 0) return;
+            System.arraycopy(slots, at + 1, slots, at, size - at - 1);
+            size--;
+        }
+
+        boolean contains(int slot) {
+            return Arrays.binarySearch(slots, 0, size, slot) >= 0;
+        }
+    }
+    //-------------------------------</Helpers>-------------------------------
+}
@@ -3,6 +3,7 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.Expose;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 
 
 public class Log {
@@ -53,6 +54,8 @@ public class Log {
     @Expose
     private final String  timestamp;
     @Expose
+    private long createdAt; //Epoch millis. 0 in logs saved before it was kept, see estimateMissingCreatedAt()
+    @Expose
     private final LogType type;
     @Expose
     private final Severity severity;
@@ -70,6 +73,7 @@ public class Log {
         this.logID = logID;
         LocalDateTime timeTemp = LocalDateTime.now();
         timestamp = timeTemp.format(java.time.format.DateTimeFormatter.ofPattern("MM-dd HH:mm:ss a"));
+        createdAt = timeTemp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
         this.amount = amount;
         this.type = type;
         this.message = message;
@@ -104,12 +108,35 @@ public class Log {
     public String getMessage() { return message; }
     public String getSerial() { return serial; }
     public boolean isSuppressed() {return suppressed;}
+    public long getCreatedAt() { return createdAt; }
 
     // --------------------------- Setters ---------------------------
     public void setMessage(String message) { this.message = message; }
     public void setSerial(String itemSerial) { this.serial = itemSerial; }
     public void setSuppressed(boolean suppressed) {this.suppressed = suppressed;}
 
+    //Older saves only have the "MM-dd HH:mm:ss" timestamp, taken as the latest such time that is not in the future.
+    //Set once when loaded so the guess does not move a year later
+    void estimateMissingCreatedAt() {
+        if (createdAt != 0 || timestamp == null || timestamp.length() < 14) return;
+        LocalDateTime now = LocalDateTime.now();
+        for (int year = now.getYear(); year >= now.getYear() - 4; year--) { //Feb 29 only exists in a leap year
+            try {
+                LocalDateTime time = LocalDateTime.of(year,
+                        Integer.parseInt(timestamp.substring(0, 2)), Integer.parseInt(timestamp.substring(3, 5)),
+                        Integer.parseInt(timestamp.substring(6, 8)), Integer.parseInt(timestamp.substring(9, 11)),
+                        Integer.parseInt(timestamp.substring(12, 14)));
+                if (time.isAfter(now)) continue;
+                createdAt = time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                return;
+            } catch (NumberFormatException e) {
+                break;
+            } catch (java.time.DateTimeException ignored) {
+            }
+        }
+        System.out.println("WARNING: Could not read the time of log #" + logID + ": " + timestamp);
+    }
+
 
     @Override
     public String toString(){
@@ -0,0 +1,9 @@
+package core;
+
+//Told about every log change that has to survive a crash, right after it is made, see LogManager.setJournal()
+//Only the log is passed, the journal reads its current message and flags itself when it writes them out
+public interface LogJournal {
+    void logAdded(Log log);
+    void logChanged(Log log); //New message or suppressed flag
+    void logRemoved(Log log);
+}
@@ -1,27 +1,55 @@
 package core;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 public class LogManager {
     public Inventory inventory;
 
 
-    public ArrayList<Log> AllLogs = new ArrayList<>();
-    public ArrayList<Log> CriticalLogs = new ArrayList<>();
-    public ArrayList<Log> WarningLogs = new ArrayList<>();
-    public ArrayList<Log> NormalLogs = new ArrayList<>();
+    //Every log keyed by id, and the same logs split by severity and by item, all ordered by id.
+    //Adding or removing a log is O(log n) in each and nothing is shifted or scanned.
+    //Concurrent maps so the windows can read while an order fetch adds logs
+    private final ConcurrentSkipListMap<Integer, Log> logs = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<Integer, Log> criticalLogs = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<Integer, Log> warningLogs = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<Integer, Log> normalLogs = new ConcurrentSkipListMap<>();
+    private final Map<Item, ConcurrentSkipListMap<Integer, Log>> itemToLogs = new ConcurrentHashMap<>();
+
+    //The same logs by creation time, so a date range is a range scan. Ties are broken by id
+    private record TimeKey(long time, int id) implements Comparable<TimeKey> {
+        @Override
+        public int compareTo(TimeKey o) {
+            int c = Long.compare(time, o.time);
+            return c != 0 ? c : Integer.compare(id, o.id);
+        }
+    }
+    private final ConcurrentSkipListMap<TimeKey, Log> byTime = new ConcurrentSkipListMap<>();
 
-    private final ArrayList<Runnable> listeners = new ArrayList<>();
+    //Words of every log's message, type and serial, for the main window search
+    private final LogSearchIndex searchIndex = new LogSearchIndex(logs);
 
-    // Quick lookup by ID
-    public Map<Integer, Log> logById = new HashMap<>();
+    //Live read only views, oldest first. Change logs through this class
+    public final Collection<Log> AllLogs = Collections.unmodifiableCollection(logs.values());
+    public final Collection<Log> CriticalLogs = Collections.unmodifiableCollection(criticalLogs.values());
+    public final Collection<Log> WarningLogs = Collections.unmodifiableCollection(warningLogs.values());
+    public final Collection<Log> NormalLogs = Collections.unmodifiableCollection(normalLogs.values());
 
-    public Map<Item, ArrayList<Log>> itemToLogs = new HashMap<>();
+    // Quick lookup by ID
+    public final Map<Integer, Log> logById = Collections.unmodifiableMap(logs);
 
     public static int nextlogID = 1;
 
+    //Every log change is reported here so it can be saved on its own. Null while loading
+    private volatile LogJournal journal;
+
     public LogManager(){} //Constructor
 
+    public void setJournal(LogJournal journal) {
+        this.journal = journal;
+    }
+
     public void setInventory(Inventory i){
         inventory = i;
         if (i.logManager != this) {
@@ -31,7 +59,7 @@ public class LogManager {
 
     //-------------------------------------Log Creation
     //All logs are created from the inventory
-    public void createLog(Log.LogType type, int amount, String message, String itemSerial) {
+    public Log createLog(Log.LogType type, int amount, String message, String itemSerial) {
         if(inventory.getItemBySerial(itemSerial) == null && !itemSerial.isEmpty()){
             itemSerial = "";
         }
@@ -43,70 +71,126 @@ public class LogManager {
         if(type == Log.LogType.SystemError){
             System.out.println(message);
         }
+        return l;
     }
     public void addLogToCollections(Log l) {
         if (l == null) return;
-        AllLogs.add(l);
-        logById.put(l.getLogID(), l);
-
-        Item i = inventory.getItemBySerial(l.getSerial());
-        if(l.getSerial() != null && !l.getSerial().isEmpty() && i != null){
-            itemToLogs.computeIfAbsent(i, k -> new ArrayList<>()).add(l);
-        }
-
-        switch (l.getSeverity()) {
-            case Critical -> CriticalLogs.add(l);
-            case Warning -> WarningLogs.add(l);
-            case Normal -> NormalLogs.add(l);
-        }
-        notifyListeners();
+        index(l);
+        inventory.getChangeBus().publish(new ChangeBus.LogAdded(l));
     }
     public void addLogToCollectionsWithoutNotify(Log l) {
         if (l == null) return;
-        AllLogs.add(l);
-        logById.put(l.getLogID(), l);
+        index(l);
+    }
+    private void index(Log l) {
+        l.estimateMissingCreatedAt(); //Before it is used as a key
+        logs.put(l.getLogID(), l);
+        byTime.put(timeKey(l), l);
+        searchIndex.add(l);
+        LogJournal j = journal;
+        if (j != null) j.logAdded(l);
+        severityIndex(l.getSeverity()).put(l.getLogID(), l);
 
         Item i = inventory.getItemBySerial(l.getSerial());
         if(l.getSerial() != null && !l.getSerial().isEmpty() && i != null){
-            itemToLogs.computeIfAbsent(i, k -> new ArrayList<>()).add(l);
-        }
-
-        switch (l.getSeverity()) {
-            case Critical -> CriticalLogs.add(l);
-            case Warning -> WarningLogs.add(l);
-            case Normal -> NormalLogs.add(l);
+            linkLogToItem(i, l);
         }
     }
+    private ConcurrentSkipListMap<Integer, Log> severityIndex(Log.Severity severity) {
+        return switch (severity) {
+            case Critical -> criticalLogs;
+            case Warning -> warningLogs;
+            case Normal -> normalLogs;
+        };
+    }
     public void removeLog(Log log) {
         if (log == null) return;
 
-        //Remove from all lists
-        AllLogs.remove(log);
-
-        switch (log.getSeverity()) {
-            case Critical -> CriticalLogs.remove(log);
-            case Warning -> WarningLogs.remove(log);
-            case Normal  -> NormalLogs.remove(log);
-        }
-
-        //Remove from ID map
-        logById.remove(log.getLogID());
+        //Remove from id and severity indexes
+        if (!logs.remove(log.getLogID(), log)) return; //Not ours or already removed
+        severityIndex(log.getSeverity()).remove(log.getLogID(), log);
+        byTime.remove(timeKey(log), log);
+        searchIndex.remove(log);
+        LogJournal j = journal;
+        if (j != null) j.logRemoved(log);
 
         //Remove from item logs
         if(!log.getSerial().isEmpty()){
             Item item = inventory.getItemBySerial(log.getSerial());
             if (item != null) {
-
-                ArrayList<Log> itemLogs = itemToLogs.get(item);
-                if (itemLogs != null) {
-                    itemLogs.remove(log);
-                    if (itemLogs.isEmpty()) {
-                        itemToLogs.remove(item);
-                    }
-                }
+                unlinkLogFromItem(item, log);
             }
         }
     }
+    //Drops every log of an item, used when the item is deleted. O(m log n) for m logs
+    public void removeLogsForItem(Item item) {
+        ConcurrentSkipListMap<Integer, Log> itemLogs = itemToLogs.remove(item);
+        if (itemLogs == null) return;
+        for (Log log : itemLogs.values()) {
+            if (logs.remove(log.getLogID(), log)) {
+                severityIndex(log.getSeverity()).remove(log.getLogID(), log);
+                byTime.remove(timeKey(log), log);
+                searchIndex.remove(log);
+                LogJournal j = journal;
+                if (j != null) j.logRemoved(log);
+            }
+        }
+    }
+    //-------------------------------------Time range
+    //Logs created from..to (epoch millis, both included), oldest first. Live read only view, O(log n) to find the start
+    public Collection<Log> getLogsBetween(long from, long to) {
+        if (from > to) return List.of();
+        return Collections.unmodifiableCollection(byTime.subMap(
+                new TimeKey(from, Integer.MIN_VALUE), true, new TimeKey(to, Integer.MAX_VALUE), true).values());
+    }
+    //Logs of one type and/or for one serial (null for any) created from..to, oldest first.
+    //Only the logs inside the range are looked at, e.g. every ItemShipped log of an item last week
+    public List<Log> findLogs(long from, long to, Log.LogType type, String serial) {
+        List<Log> found = new ArrayList<>();
+        for (Log l : getLogsBetween(from, to)) {
+            if (type != null && l.getType() != type) continue;
+            if (serial != null && !serial.equals(l.getSerial())) continue;
+            found.add(l);
+        }
+        return found;
+    }
+    private static TimeKey timeKey(Log l) {
+        return new TimeKey(l.getCreatedAt(), l.getLogID());
+    }
+    //-------------------------------------Search
+    //Logs having every word of the query at the start of a word of their message, type or serial, or anywhere in their id.
+    //A query word that starts no word matches the words that contain it instead.
+    //Newest first, found through the word index without reading the other logs. Empty when the query has no words
+    public List<Log> searchLogs(String query) {
+        return searchIndex.search(query);
+    }
+    //-------------------------------------Item logs
+    //Live read only view of an item's logs, oldest first. Empty when it has none
+    public Collection<Log> getLogsForItem(Item item) {
+        ConcurrentSkipListMap<Integer, Log> itemLogs = itemToLogs.get(item);
+        return itemLogs == null ? List.of() : Collections.unmodifiableCollection(itemLogs.values());
+    }
+    //Items with at least one log, read only
+    public Set<Item> getItemsWithLogs() {
+        return Collections.unmodifiableSet(itemToLogs.keySet());
+    }
+    //Newest first, for the main window that lists each severity newest first
+    public Collection<Log> getNewestFirst(Log.Severity severity) {
+        return Collections.unmodifiableCollection(severityIndex(severity).descendingMap().values());
+    }
+    public void linkLogToItem(Item item, Log log) {
+        itemToLogs.compute(item, (k, itemLogs) -> {
+            if (itemLogs == null) itemLogs = new ConcurrentSkipListMap<>();
+            itemLogs.put(log.getLogID(), log);
+            return itemLogs;
+        });
+    }
+    private void unlinkLogFromItem(Item item, Log log) {
+        itemToLogs.computeIfPresent(item, (k, itemLogs) -> {
+            itemLogs.remove(log.getLogID(), log);
+            return itemLogs.isEmpty() ? null : itemLogs;
+        });
+    }
     public void solveLog(Log l) {
         if (l == null) return;
 
@@ -141,6 +225,7 @@ public class LogManager {
                     + " is already suppressed.");
         }
         l.setSuppressed(true);
+        onLogChanged(l);
         String msg = "Suppressed log #" + l.getLogID() + " (" + l.getSeverity() + "): \"" + l.getMessage() + "\"";
         createLog(Log.LogType.SuppressedLog, 0, msg, l.getSerial());
     }
@@ -174,8 +259,8 @@ public class LogManager {
                 throw new RuntimeException("ERROR: Item is null in unsuppressLog()");
             }
 
-            ArrayList<Log> itemLogs = itemToLogs.get(i);
-            if (itemLogs == null || itemLogs.isEmpty()) {
+            Collection<Log> itemLogs = getLogsForItem(i);
+            if (itemLogs.isEmpty()) {
                 throw new RuntimeException("ERROR: Item has no logs to remove");
             }
 
@@ -189,18 +274,27 @@ public class LogManager {
             }
             if (toRemove != null) {
                 removeLog(toRemove);
-                l.setSuppressed(false);
             }
+            //The suppressed log may have been archived already, see LogRetention
+            l.setSuppressed(false);
+            onLogChanged(l);
         }
     }
 
-    public void addChangeListener(Runnable listener) {
-        listeners.add(listener);
+    //For alerts that are reworded instead of logged again
+    public void setLogMessage(Log l, String message) {
+        String before = l.getMessage();
+        l.setMessage(message);
+        if (logs.get(l.getLogID()) == l) searchIndex.reword(l, before);
+        onLogChanged(l);
+    }
+    private void onLogChanged(Log l) {
+        LogJournal j = journal;
+        if (j != null && logs.get(l.getLogID()) == l) j.logChanged(l);
     }
 
+    //Listeners are on the inventory's ChangeBus. Call after changing logs in bulk, e.g. loading
     public void notifyListeners() {
-        for (Runnable listener : listeners) {
-            listener.run();
-        }
+        if (inventory != null) inventory.getChangeBus().publish(new ChangeBus.LogsChanged());
     }
 }
@@ -0,0 +1,64 @@
+package core;
+
+import com.google.gson.annotations.Expose;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+//How many days logs stay in memory before they are moved to the archive, by type or else by severity.
+//A type or severity without days (or with 0) is kept forever.
+//Open alerts are always kept: Warning and Critical logs that are not suppressed, and the stock alerts the
+//StockAlertWatcher rewords and removes itself. Saved in the user config so it can be changed there
+public class LogRetention {
+
+    public static final int DEFAULT_NORMAL_DAYS = 90;
+
+    @Expose
+    private Map<Log.Severity, Integer> daysBySeverity = new EnumMap<>(Log.Severity.class);
+    @Expose
+    private Map<Log.LogType, Integer> daysByType = new EnumMap<>(Log.LogType.class); //Wins over the severity
+
+    public static LogRetention defaults() {
+        LogRetention retention = new LogRetention();
+        retention.setDays(Log.Severity.Normal, DEFAULT_NORMAL_DAYS);
+        return retention;
+    }
+
+    public void setDays(Log.Severity severity, int days) {
+        daysBySeverity.put(severity, days);
+    }
+
+    public void setDays(Log.LogType type, int days) {
+        daysByType.put(type, days);
+    }
+
+    //0 when kept forever
+    public int getDays(Log log) {
+        Integer days = daysByType == null ? null : daysByType.get(log.getType());
+        if (days == null && daysBySeverity != null) days = daysBySeverity.get(log.getSeverity());
+        return days == null || days < 0 ? 0 : days;
+    }
+
+    public boolean isExpired(Log log, long nowMillis) {
+        if (log.getType() == Log.LogType.LowStock || log.getType() == Log.LogType.ItemOutOfStock) return false;
+        if (log.getSeverity() != Log.Severity.Normal && !log.isSuppressed()) return false;
+        int days = getDays(log);
+        if (days == 0 || log.getCreatedAt() <= 0) return false; //Kept forever or age unknown
+        return log.getCreatedAt() < nowMillis - TimeUnit.DAYS.toMillis(days);
+    }
+
+    //Logs newer than this many millis are never expired, so a scan oldest first can stop at the first one
+    public long shortestMillis() {
+        return Math.min(shortestMillis(daysBySeverity), shortestMillis(daysByType));
+    }
+
+    private static long shortestMillis(Map<?, Integer> daysByKey) {
+        long shortest = Long.MAX_VALUE;
+        if (daysByKey == null) return shortest;
+        for (Integer days : daysByKey.values()) {
+            if (days != null && days > 0) shortest = Math.min(shortest, TimeUnit.DAYS.toMillis(days));
+        }
+        return shortest;
+    }
+}
@@ -0,0 +1,197 @@
+package core;
+
+import java.util.*;
+
+//Inverted index over the words of every log's message, type and serial, see LogManager.searchLogs()
+//Words are runs of letters and digits, case folded. Each word points at the sorted ids of the logs that have it.
+//A query word matches every indexed word it starts, the words are kept sorted so that is one range of the map.
+//A query word that starts none falls back to the indexed words that contain it, so "board" still finds "keyboard".
+//A query is the intersection of what its words match, each word's matches are unioned in a bitset over log ids.
+//Numbers also match the ids that contain them, like "23" finds log 123. Ids are read from the log map, not indexed.
+//A removed log is only counted as dead in its lists, a list drops its dead ids once half of it is dead.
+//A reworded log is moved between lists right away
+class LogSearchIndex {
+
+    private final NavigableMap<Integer, Log> logs; //The live logs by id, owned by LogManager
+    private final Map<String, IdList> byWord = new HashMap<>();
+    private final TreeMap<String, IdList> sortedWords = new TreeMap<>(); //Same lists, for prefix ranges
+
+    LogSearchIndex(NavigableMap<Integer, Log> logs) {
+        this.logs = logs;
+    }
+
+    //-------------------------------<Updates>-------------------------------
+    synchronized void add(Log l) {
+        for (String word : wordsOf(l, l.getMessage())) {
+            listOf(word).add(l.getLogID());
+        }
+    }
+
+    //Called after the log left the log map
+    synchronized void remove(Log l) {
+        for (String word : wordsOf(l, l.getMessage())) {
+            IdList ids = byWord.get(word);
+            if (ids == null) continue;
+            ids.dead++;
+            if (ids.dead * 2 >= ids.size) {
+                ids.dropDead(logs);
+                if (ids.size == 0) dropWord(word);
+            }
+        }
+    }
+
+    //The message changed from before to the log's current one
+    synchronized void reword(Log l, String before) {
+        Set<String> old = wordsOf(l, before);
+        Set<String> now = wordsOf(l, l.getMessage());
+        for (String word : old) {
+            if (now.contains(word)) continue;
+            IdList ids = byWord.get(word);
+            if (ids == null) continue;
+            ids.remove(l.getLogID());
+            if (ids.size == 0) dropWord(word);
+        }
+        for (String word : now) {
+            if (!old.contains(word)) listOf(word).add(l.getLogID());
+        }
+    }
+
+    private IdList listOf(String word) {
+        IdList ids = byWord.get(word);
+        if (ids == null) {
+            ids = new IdList();
+            byWord.put(word, ids);
+            sortedWords.put(word, ids);
+        }
+        return ids;
+    }
+
+    private void dropWord(String word) {
+        byWord.remove(word);
+        sortedWords.remove(word);
+    }
+    //-------------------------------</Updates>-------------------------------
+
+
+    //-------------------------------<Queries>-------------------------------
+    //Live logs matching every word of the query, newest first. Empty when the query has no words
+    synchronized List<Log> search(String query) {
+        List<Log> result = new ArrayList<>();
+        BitSet matches = null;
+        for (String term : wordsOf(query)) {
+            BitSet termMatches = new BitSet();
+            for (IdList ids : sortedWords.subMap(term, true, term + Character.MAX_VALUE, true).values()) {
+                ids.setBits(termMatches);
+            }
+            addIdsContaining(term, termMatches);
+            if (termMatches.isEmpty()) addWordsContaining(term, termMatches);
+
+            if (matches == null) {
+                matches = termMatches;
+            } else {
+                matches.and(termMatches);
+            }
+            if (matches.isEmpty()) return result;
+        }
+        if (matches == null) return result;
+
+        for (int id = matches.length() - 1; id >= 0; id = matches.previousSetBit(id - 1)) {
+            Log l = logs.get(id);
+            if (l != null) result.add(l); //Dead ids not dropped yet
+        }
+        return result;
+    }
+
+    //Scans the distinct words, not the logs
+    private void addWordsContaining(String term, BitSet bits) {
+        for (Map.Entry<String, IdList> e : byWord.entrySet()) {
+            if (e.getKey().contains(term)) e.getValue().setBits(bits);
+        }
+    }
+
+    //Ids are not indexed as words, "12" matches ids 12, 120, 312, 4125 and so on. Scans the ids, only for numbers
+    private void addIdsContaining(String term, BitSet bits) {
+        if (term.length() > 10) return;
+        for (int i = 0; i < term.length(); i++) {
+            if (term.charAt(i) < '0' || term.charAt(i) > '9') return;
+        }
+        for (Integer id : logs.keySet()) {
+            if (Integer.toString(id).contains(term)) bits.set(id);
+        }
+    }
+    //-------------------------------</Queries>-------------------------------
+
+
+    //-------------------------------<Helpers>-------------------------------
+    private static Set<String> wordsOf(Log l, String message) {
+        Set<String> words = new HashSet<>();
+        addWords(message, words);
+        addWords(l.getType() == null ? null : l.getType().name(), words);
+        addWords(l.getSerial(), words);
+        return words;
+    }
+
+    //Distinct words in order
+    static Set<String> wordsOf(String text) {
+        Set<String> words = new LinkedHashSet<>();
+        addWords(text, words);
+        return words;
+    }
+
+    private static void addWords(String text, Set<String> words) {
+        if (text == null) return;
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+    }
+
+    //Sorted log ids without boxing. Ids only grow so adding is almost always an append
+    private static final class IdList {
+        int[] ids = new int[2];
+        int size = 0;
+        int dead = 0; //Ids of removed logs still in the list
+
+        void add(int id) {
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            if (size == 0 || id > ids[size - 1]) {
+                ids[size++] = id;
+                return;
+            }
+            int at = Arrays.binarySearch(ids, 0, size, id);
+            if (at >= 0) return;
+            at = -at - 1;
+            System.arraycopy(ids, at, ids, at + 1, size - at);
+            ids[at] = id;
+            size++;
+        }
+
+        void remove(int id) {
+            int at = Arrays.binarySearch(ids, 0, size, id);
+            if (at < 0) return;
+            System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+            size--;
+        }
+
+        void dropDead(NavigableMap<Integer, Log> logs) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (logs.containsKey(ids[i])) ids[kept++] = ids[i];
+            }
+            size = kept;
+            dead = 0;
+            if (ids.length > 16 && size < ids.length / 4) ids = Arrays.copyOf(ids, Math.max(2, size * 2));
+        }
+
+        void setBits(BitSet bits) {
+            for (int i = 0; i < size; i++) bits.set(ids[i]);
+        }
+    }
+    //-------------------------------</Helpers>-------------------------------
+}
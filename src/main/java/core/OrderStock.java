@@ -0,0 +1,20 @@
+package core;
+
+import platform.BaseSeller;
+import platform.PlatformType;
+
+import java.util.List;
+import java.util.Map;
+
+//The stock checks and reservations order handling needs. The Inventory answers them for real,
+//an InventoryFork answers them on a copy so PlatformManager can dry run orders with the same code
+public interface OrderStock {
+    Item getItemByPlatformAndSKU(PlatformType platform, String sku);
+    int getAvailableQuantity(Item item);
+    boolean isItemInStockRecursive(Item item, int amountNeeded);
+    List<Map<Item, Integer>> possibleBreakDownsForItem(Item neededItem, int amountNeeded);
+
+    boolean tryReserveItemForOrder(Item item, String orderId, int quantity);
+    void reserveItemsForOrder(PlatformType platform, BaseSeller.Order order);
+    void releaseReservationForOrder(PlatformType platform, BaseSeller.Order order);
+}
@@ -0,0 +1,328 @@
+package core;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+//Thread safe, primitive backed ledger for every item quantity in the inventory
+//Each registered item gets a dense int slot (assigned in registerItemMapping, recycled in unregisterItemMapping)
+//Every slot is one long cell holding both the quantity (high 32 bits) and the reserved amount (low 32 bits),
+//so a single CAS updates both and check-and-decrement / check-and-reserve never need a lock.
+//Only slot assignment and freeing are synchronized, quantity reads and writes are lock free and allocate nothing.
+class QuantityLedger {
+
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    //Pages are never moved once created so a reader holding an old directory still sees live cells
+    private volatile AtomicLongArray[] cellPages = new AtomicLongArray[0];
+    private volatile List<AtomicReferenceArray<Item>> itemPages = List.of(); //Immutable, replaced when a page is added
+
+    //Slots of removed items are reused before a new page is added
+    private int[] freeSlots = new int[16];
+    private int freeCount = 0;
+
+    private volatile int highWater = 0; //Every slot below this has been handed out at least once
+    private volatile int size = 0;
+
+    //Only used when a lookup comes in with a different instance of an equal item (ex: an item freshly parsed from a save)
+    private final Map<String, Integer> slotBySerial = new ConcurrentHashMap<>();
+
+    private final Map<Item, Integer> view = new ReadOnlyView();
+
+    //-------------------------------<Slots>-------------------------------
+    public synchronized int assign(Item item, int quantity) {
+        int existing = slotOf(item);
+        if (existing >= 0) {
+            set(existing, quantity);
+            return existing;
+        }
+
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            slot = highWater;
+            if (slot >> PAGE_BITS >= cellPages.length) addPage();
+        }
+        cell(slot).set(slot & PAGE_MASK, pack(quantity, 0));
+        itemPage(slot).set(slot & PAGE_MASK, item);
+        item.setInventorySlot(slot);
+        slotBySerial.put(item.getSerial(), slot);
+
+        if (slot == highWater) highWater = slot + 1;
+        size++;
+        return slot;
+    }
+
+    public synchronized void free(Item item) {
+        int slot = slotOf(item);
+        if (slot < 0) return;
+
+        Item stored = itemAt(slot);
+        itemPage(slot).set(slot & PAGE_MASK, null);
+        cell(slot).set(slot & PAGE_MASK, 0L);
+        stored.setInventorySlot(-1);
+        slotBySerial.remove(stored.getSerial());
+
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+        size--;
+    }
+
+    //Returns -1 if the item is not registered
+    public int slotOf(Item item) {
+        if (item == null) return -1;
+        int slot = item.getInventorySlot();
+        if (slot >= 0 && slot < highWater && itemAt(slot) == item) {
+            return slot;
+        }
+        Integer bySerial = slotBySerial.get(item.getSerial());
+        return bySerial == null ? -1 : bySerial;
+    }
+
+    private void addPage() {
+        int pages = cellPages.length;
+
+        AtomicLongArray[] newCells = Arrays.copyOf(cellPages, pages + 1);
+        newCells[pages] = new AtomicLongArray(PAGE_SIZE);
+
+        List<AtomicReferenceArray<Item>> newItems = new ArrayList<>(itemPages);
+        newItems.add(new AtomicReferenceArray<>(PAGE_SIZE));
+
+        itemPages = List.copyOf(newItems);
+        cellPages = newCells;
+    }
+
+    private AtomicLongArray cell(int slot) {
+        return cellPages[slot >> PAGE_BITS];
+    }
+
+    private AtomicReferenceArray<Item> itemPage(int slot) {
+        return itemPages.get(slot >> PAGE_BITS);
+    }
+
+    //Null for a free or unused slot
+    public Item itemAt(int slot) {
+        List<AtomicReferenceArray<Item>> pages = itemPages;
+        int page = slot >> PAGE_BITS;
+        return page < pages.size() ? pages.get(page).get(slot & PAGE_MASK) : null;
+    }
+
+    //Packed quantity and reserved of a slot, 0 for a free or unused slot
+    long cellAt(int slot) {
+        AtomicLongArray[] pages = cellPages;
+        int page = slot >> PAGE_BITS;
+        return page < pages.length ? pages[page].get(slot & PAGE_MASK) : 0L;
+    }
+    //-------------------------------</Slots>-------------------------------
+
+
+    //-------------------------------<Packing>-------------------------------
+    private static long pack(int quantity, int reserved) {
+        return ((long) quantity << 32) | (reserved & 0xFFFFFFFFL);
+    }
+
+    static int quantityOf(long cell) {
+        return (int) (cell >> 32);
+    }
+
+    static int reservedOf(long cell) {
+        return (int) cell;
+    }
+    //-------------------------------</Packing>-------------------------------
+
+
+    //-------------------------------<Quantities>-------------------------------
+    public boolean contains(Item item) {
+        return slotOf(item) >= 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(Item item) {
+        int slot = slotOf(item);
+        return slot < 0 ? 0 : quantityOf(cell(slot).get(slot & PAGE_MASK));
+    }
+
+    public int getReserved(Item item) {
+        int slot = slotOf(item);
+        return slot < 0 ? 0 : reservedOf(cell(slot).get(slot & PAGE_MASK));
+    }
+
+    //Quantity minus reserved, read from a single cell so both values are from the same moment
+    public int getAvailable(Item item) {
+        int slot = slotOf(item);
+        if (slot < 0) return 0;
+        long current = cell(slot).get(slot & PAGE_MASK);
+        return quantityOf(current) - reservedOf(current);
+    }
+
+    public void set(Item item, int quantity) {
+        set(requireSlot(item), quantity);
+    }
+
+    private void set(int slot, int quantity) {
+        AtomicLongArray cells = cell(slot);
+        int i = slot & PAGE_MASK;
+        long current;
+        do {
+            current = cells.get(i);
+        } while (!cells.compareAndSet(i, current, pack(quantity, reservedOf(current))));
+    }
+
+    //Returns the new quantity
+    public int add(Item item, int amount) {
+        int slot = requireSlot(item);
+        AtomicLongArray cells = cell(slot);
+        int i = slot & PAGE_MASK;
+        long current;
+        int updated;
+        do {
+            current = cells.get(i);
+            updated = quantityOf(current) + amount;
+        } while (!cells.compareAndSet(i, current, pack(updated, reservedOf(current))));
+        return updated;
+    }
+
+    //Never goes under 0. Returns the new quantity
+    public int decreaseClamped(Item item, int amount) {
+        int slot = requireSlot(item);
+        AtomicLongArray cells = cell(slot);
+        int i = slot & PAGE_MASK;
+        long current;
+        int updated;
+        do {
+            current = cells.get(i);
+            updated = Math.max(0, quantityOf(current) - amount);
+        } while (!cells.compareAndSet(i, current, pack(updated, reservedOf(current))));
+        return updated;
+    }
+
+    //Check-and-decrement. Only removes stock that is not reserved by someone else.
+    //ownReserved is the part of the reservations that belongs to the caller (ex: the order being shipped)
+    //Returns the new quantity, or -1 if there was not enough free stock and nothing was changed
+    public int tryDecrease(Item item, int amount, int ownReserved) {
+        int slot = requireSlot(item);
+        AtomicLongArray cells = cell(slot);
+        int i = slot & PAGE_MASK;
+        long current;
+        int updated;
+        do {
+            current = cells.get(i);
+            int otherReserved = Math.max(0, reservedOf(current) - ownReserved);
+            if (quantityOf(current) - otherReserved < amount) {
+                return -1;
+            }
+            updated = quantityOf(current) - amount;
+        } while (!cells.compareAndSet(i, current, pack(updated, reservedOf(current))));
+        return updated;
+    }
+
+    //Check-and-reserve. Only reserves if that much unreserved stock exists
+    public boolean tryReserve(Item item, int amount) {
+        int slot = requireSlot(item);
+        AtomicLongArray cells = cell(slot);
+        int i = slot & PAGE_MASK;
+        long current;
+        do {
+            current = cells.get(i);
+            if (quantityOf(current) - reservedOf(current) < amount) {
+                return false;
+            }
+        } while (!cells.compareAndSet(i, current, pack(quantityOf(current), reservedOf(current) + amount)));
+        return true;
+    }
+
+    //Unconditional reserve (positive) or release (negative). Reserved never goes under 0
+    public void reserve(Item item, int delta) {
+        int slot = slotOf(item);
+        if (slot < 0) return;
+        AtomicLongArray cells = cell(slot);
+        int i = slot & PAGE_MASK;
+        long current;
+        do {
+            current = cells.get(i);
+        } while (!cells.compareAndSet(i, current,
+                pack(quantityOf(current), Math.max(0, reservedOf(current) + delta))));
+    }
+
+    private int requireSlot(Item item) {
+        int slot = slotOf(item);
+        if (slot < 0) {
+            throw new IllegalStateException("ERROR: Item has no quantity slot: " + (item == null ? "null" : item.getName()));
+        }
+        return slot;
+    }
+    //-------------------------------</Quantities>-------------------------------
+
+    //Read only Map<Item,Integer> over the slots. Used by the GUI and the file managers
+    //Iteration is weakly consistent like a ConcurrentHashMap, it never throws while others write
+    public Map<Item, Integer> asMap() {
+        return view;
+    }
+
+    private class ReadOnlyView extends AbstractMap<Item, Integer> {
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof Item i && slotOf(i) >= 0;
+        }
+
+        @Override
+        public Integer get(Object key) {
+            if (!(key instanceof Item i)) return null;
+            int slot = slotOf(i);
+            return slot < 0 ? null : quantityOf(cell(slot).get(slot & PAGE_MASK));
+        }
+
+        @Override
+        public Set<Entry<Item, Integer>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public Iterator<Entry<Item, Integer>> iterator() {
+                    return new Iterator<>() {
+                        private final int end = highWater;
+                        private Item nextItem;
+                        private int next = advance(0);
+
+                        private int advance(int from) {
+                            nextItem = null;
+                            while (from < end && (nextItem = itemAt(from)) == null) from++;
+                            return from;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < end;
+                        }
+
+                        @Override
+                        public Entry<Item, Integer> next() {
+                            if (!hasNext()) throw new NoSuchElementException();
+                            int slot = next;
+                            Item item = nextItem;
+                            next = advance(slot + 1);
+                            return new SimpleImmutableEntry<>(item, quantityOf(cell(slot).get(slot & PAGE_MASK)));
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package core;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+//Keeps the LowStock and ItemOutOfStock logs in line with item quantities
+//Only items whose quantity or low stock trigger changed since the last pass are evaluated.
+//The active alert log of every item is held here, so an item's log list is never scanned to find it.
+//Inventory marks items dirty, Inventory.checkLowAndOutOfStock() runs a pass
+class StockAlertWatcher {
+
+    private final Inventory inventory;
+
+    //Items changed since the last pass. Marking is lock free and may come from any thread
+    //The set only keeps an item from being queued twice, draining polls the queue so a pass never walks an empty table
+    private final Queue<Item> dirtyQueue = new ConcurrentLinkedQueue<>();
+    private final Set<Item> dirty = ConcurrentHashMap.newKeySet();
+
+    //Item -> its active alert. An item has at most one of each
+    private final Map<Item, Log> lowStockLogs = new ConcurrentHashMap<>();
+    private final Map<Item, Log> outOfStockLogs = new ConcurrentHashMap<>();
+
+    //Set on startup and after logs are (re)loaded. The next pass picks up existing alerts from the logs once
+    private volatile boolean needsResync = true;
+
+    StockAlertWatcher(Inventory inventory) {
+        this.inventory = inventory;
+    }
+
+    void markDirty(Item item) {
+        if (item != null && dirty.add(item)) dirtyQueue.add(item);
+    }
+
+    //Item was removed from the inventory, its logs are removed with it
+    void forget(Item item) {
+        lowStockLogs.remove(item);
+        outOfStockLogs.remove(item);
+    }
+
+    void requestResync() {
+        needsResync = true;
+    }
+
+    //Logs created or removed here notify the LogManager listeners, which schedule another pass.
+    //That pass finds nothing dirty and returns right away so it never loops.
+    synchronized void evaluate() {
+        LogManager logManager = inventory.logManager;
+        if (logManager == null) return;
+
+        if (needsResync) {
+            needsResync = false;
+            resync(logManager);
+        }
+        Item i;
+        while ((i = dirtyQueue.poll()) != null) {
+            dirty.remove(i); //Marked again while evaluating means it is queued again
+            evaluate(i, logManager);
+        }
+    }
+
+    private void evaluate(Item i, LogManager logManager) {
+        if (!inventory.hasItem(i)) { //Removed mid-way
+            forget(i);
+            return;
+        }
+        int currentQuantity = inventory.getQuantity(i);
+        int trigger = i.getLowStockTrigger();
+        if (trigger == 0) return;
+
+        Log lowStockLog = activeAlert(lowStockLogs, i, logManager);
+        Log outOfStockLog = activeAlert(outOfStockLogs, i, logManager);
+
+        String lowStockReminder = " (Current quantity : " + currentQuantity + " | Low stock trigger : " + trigger + ")";
+
+        //Out of stock
+        if (currentQuantity == 0) {
+            removeAlert(lowStockLogs, i, lowStockLog, logManager);
+            if (outOfStockLog == null) {
+                outOfStockLogs.put(i, logManager.createLog(
+                        Log.LogType.ItemOutOfStock,
+                        0,
+                        i.getName() + " (" + i.getSerial() + ") out of stock!" + lowStockReminder,
+                        i.getSerial()
+                ));
+            } else {
+                logManager.setLogMessage(outOfStockLog,
+                        i.getName() + " (" + i.getSerial() + ") out of stock!" + lowStockReminder
+                );
+            }
+        }
+        //Low stock
+        else if (currentQuantity <= trigger) {
+            if (lowStockLog == null) {
+                lowStockLogs.put(i, logManager.createLog(
+                        Log.LogType.LowStock,
+                        currentQuantity,
+                        i.getName() + " (" + i.getSerial() + ") is low on stock!" + lowStockReminder,
+                        i.getSerial()
+                ));
+            } else {
+                logManager.setLogMessage(lowStockLog,
+                        i.getName() + " (" + i.getSerial() + ") is still low on stock!" + lowStockReminder
+                );
+            }
+            removeAlert(outOfStockLogs, i, outOfStockLog, logManager);
+        }
+        //Stock normal
+        else {
+            removeAlert(lowStockLogs, i, lowStockLog, logManager);
+            removeAlert(outOfStockLogs, i, outOfStockLog, logManager);
+        }
+    }
+
+    //The held log, unless it was removed from the LogManager by someone else since
+    private Log activeAlert(Map<Item, Log> alerts, Item i, LogManager logManager) {
+        Log l = alerts.get(i);
+        if (l != null && logManager.logById.get(l.getLogID()) != l) {
+            alerts.remove(i, l);
+            return null;
+        }
+        return l;
+    }
+
+    private void removeAlert(Map<Item, Log> alerts, Item i, Log l, LogManager logManager) {
+        if (l == null) return;
+        alerts.remove(i, l);
+        logManager.removeLog(l);
+    }
+
+    //One full scan of the item log links, only after a load. Every item is evaluated once afterward
+    private void resync(LogManager logManager) {
+        lowStockLogs.clear();
+        outOfStockLogs.clear();
+
+        for (Item linked : new ArrayList<>(logManager.getItemsWithLogs())) {
+            Item i = inventory.getItemBySerial(linked.getSerial());
+            if (i == null) continue;
+            for (Log l : logManager.getLogsForItem(linked)) {
+                if (l.getType() == Log.LogType.LowStock) lowStockLogs.put(i, l);
+                if (l.getType() == Log.LogType.ItemOutOfStock) outOfStockLogs.put(i, l);
+            }
+        }
+        for (Item i : inventory.MainInventory.keySet()) {
+            markDirty(i);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package core;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+//For every item, all composites that contain it anywhere in their recipe ("where used"), as a sorted array of quantity slots
+//Arrays only hold the slots that are set, a bitset would grow to the highest slot of any composite using the item.
+//When a recipe changes only the items under it (its old and new components and everything below them) are recomputed,
+//parents before children in composition rank order so each one is just the union of its direct parents' sets.
+//Arrays are replaced, never changed in place, so readers need no lock
+class WhereUsedIndex {
+
+    private final Inventory inventory;
+    private final CompositionOrder order;
+
+    private volatile Map<Item, int[]> usedIn = new ConcurrentHashMap<>(); //No entry means used in nothing
+    private boolean deferred = false; //Guarded by this. Set while a whole catalog is linked, see rebuild
+
+    WhereUsedIndex(Inventory inventory, CompositionOrder order) {
+        this.inventory = inventory;
+        this.order = order;
+    }
+
+    //Sorted slots, null when used in nothing. Do not change the array
+    int[] get(Item item) {
+        return usedIn.get(item);
+    }
+
+    void remove(Item item) {
+        usedIn.remove(item);
+    }
+
+    //Called after parent's recipe changed. previousComponents are the ones it had before, may be empty
+    synchronized void recipeChanged(Item parent, Collection<Item> previousComponents) {
+        if (deferred) return;
+
+        Set<Item> affected = new HashSet<>();
+        Deque<Item> toVisit = new ArrayDeque<>(previousComponents);
+        if (parent.getComposedOf() != null) toVisit.addAll(parent.getComposedOf().keySet());
+        while (!toVisit.isEmpty()) {
+            Item current = toVisit.pop();
+            if (!affected.add(current)) continue;
+            if (current.getComposedOf() != null) toVisit.addAll(current.getComposedOf().keySet());
+        }
+        if (affected.isEmpty()) return;
+
+        List<Item> topDown = order.sorted(affected);
+        Collections.reverse(topDown);
+        for (Item item : topDown) {
+            recompute(item, usedIn);
+        }
+    }
+
+    //Recipe changes are ignored until rebuild. For loading, where every recipe is set once
+    synchronized void defer() {
+        deferred = true;
+    }
+
+    //Computes every item's set in one top down pass and swaps it in
+    synchronized void rebuild(Collection<Item> items) {
+        deferred = false;
+        Map<Item, int[]> built = new ConcurrentHashMap<>();
+        List<Item> topDown = order.sorted(items);
+        Collections.reverse(topDown);
+        for (Item item : topDown) {
+            recompute(item, built);
+        }
+        usedIn = built;
+    }
+
+    private void recompute(Item item, Map<Item, int[]> target) {
+        int size = 0;
+        for (Item parent : item.getComposesInto()) {
+            int[] above = target.get(parent);
+            size += 1 + (above == null ? 0 : above.length);
+        }
+        int[] slots = new int[size];
+        int n = 0;
+        for (Item parent : item.getComposesInto()) {
+            int slot = inventory.slotOf(parent);
+            if (slot < 0) continue;
+            slots[n++] = slot;
+            int[] above = target.get(parent);
+            if (above != null) {
+                System.arraycopy(above, 0, slots, n, above.length);
+                n += above.length;
+            }
+        }
+        if (n == 0) {
+            target.remove(item);
+            return;
+        }
+
+        //Sort and drop the slots reached through more than one parent
+        Arrays.sort(slots, 0, n);
+        int unique = 1;
+        for (int i = 1; i < n; i++) {
+            if (slots[i] != slots[unique - 1]) slots[unique++] = slots[i];
+        }
+        target.put(item, unique == slots.length ? slots : Arrays.copyOf(slots, unique));
+    }
+}
@@ -200,7 +200,7 @@ public class AddWindow extends SubWindow {
             String selectedSerial = componentSerialMap.get(selectedDisplay);
 
             if (selectedSerial != null && !selectedTags.contains(selectedSerial)) {
-                Item selectedItem = inventory.SerialToItemMap.get(selectedSerial);
+                Item selectedItem = inventory.getItemBySerial(selectedSerial);
                 if (selectedItem == null) return;
 
                 selectedTags.add(selectedSerial);
@@ -316,7 +316,7 @@ public class AddWindow extends SubWindow {
                 for (Map.Entry<String, Integer> entry : composedComponents.entrySet()) {
                     String serialKey = entry.getKey();
                     int qty = entry.getValue();
-                    Item component = inventory.SerialToItemMap.get(serialKey);
+                    Item component = inventory.getItemBySerial(serialKey);
                     if (component != null) {
                         composedOfPackets.put(component, qty);
                     }
@@ -496,7 +496,7 @@ public class AddWindow extends SubWindow {
             for (Map.Entry<String, Integer> entry : composedComponents.entrySet()) {
                 String serialKey = entry.getKey();
                 int qty = entry.getValue();
-                Item component = inventory.SerialToItemMap.get(serialKey);
+                Item component = inventory.getItemBySerial(serialKey);
                 if (component != null) {
                     composedText.append("\n  • ")
                             .append(component.getName())
@@ -707,7 +707,7 @@ public class AddWindow extends SubWindow {
                 return;
             }
 
-            Item target = inventory.SerialToItemMap.get(selectedSerial);
+            Item target = inventory.getItemBySerial(selectedSerial);
 
             updateAddButtonText(addButton, itemDropdown, displayToSerialMap, quantityField);
 
@@ -760,7 +760,7 @@ public class AddWindow extends SubWindow {
             //Get currently selected item
             String selectedItem = (String) itemDropdown.getEditor().getItem();
             String selectedSerial = displayToSerialMap.get(selectedItem);
-            selected = inventory.SerialToItemMap.get(selectedSerial);
+            selected = inventory.getItemBySerial(selectedSerial);
 
             getContentPane().removeAll();
             add(composeItemPanel(), BorderLayout.CENTER);
@@ -850,6 +850,12 @@ public class AddWindow extends SubWindow {
         JTextField quantityField = new JTextField(20);
         panel.add(quantityField, gbc);
 
+        //Sub-assemblies
+        gbc.gridx = 1; gbc.gridy++;
+        JCheckBox buildSubAssembliesBox = new JCheckBox("Build short sub-assemblies from their parts");
+        buildSubAssembliesBox.setSelected(false);
+        panel.add(buildSubAssembliesBox, gbc);
+
         // Buttons
         gbc.gridx = 0; gbc.gridy++;
         gbc.gridwidth = 3;
@@ -914,7 +920,7 @@ public class AddWindow extends SubWindow {
                 return;
             }
 
-            Item target = inventory.SerialToItemMap.get(selectedSerial);
+            Item target = inventory.getItemBySerial(selectedSerial);
 
             updateComposeButtonText(composeButton, itemDropdown, displayToSerialMap, quantityField);
 
@@ -926,7 +932,9 @@ public class AddWindow extends SubWindow {
                 JOptionPane.showMessageDialog(this, "Item is not composite", "Not composite", JOptionPane.ERROR_MESSAGE);
                 return;
             }
+            boolean buildSubAssemblies = buildSubAssembliesBox.isSelected();
             for(Map.Entry<Item,Integer> ip: target.getComposedOf().entrySet()){ //Check if we have enough of each part
+                if (buildSubAssemblies) break; //Checked by the inventory since short sub-assemblies can be built
                 Item item = ip.getKey();
                 int qty = ip.getValue();
                 long required = (long) qty * (long) amount;
@@ -954,7 +962,14 @@ public class AddWindow extends SubWindow {
             if (confirm != JOptionPane.YES_OPTION) return;
 
 
-            inventory.composeItem(target, amount);
+            try {
+                inventory.composeItem(target, amount, buildSubAssemblies);
+            } catch (RuntimeException ex) {
+                JOptionPane.showMessageDialog(this, ex.getMessage(),
+                        "Not enough items to compose item",
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
 
 
             JOptionPane.showMessageDialog(this,
@@ -1000,7 +1015,7 @@ public class AddWindow extends SubWindow {
             }
         }
 
-        Item currentTarget = inventory.SerialToItemMap.get(currentSerial);
+        Item currentTarget = inventory.getItemBySerial(currentSerial);
         addButton.setText(updateAddText(currentTarget, currentAmount));
     }
     void updateComposeButtonText(JButton composeButton, JComboBox<String> itemDropdown,
@@ -1019,7 +1034,7 @@ public class AddWindow extends SubWindow {
             }
         }
 
-        Item currentTarget = inventory.SerialToItemMap.get(currentSerial);
+        Item currentTarget = inventory.getItemBySerial(currentSerial);
         composeButton.setText(updateComposeText(currentTarget, currentAmount));
     }
     String updateAddText(Item target, int amount) {
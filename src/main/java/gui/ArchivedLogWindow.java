@@ -0,0 +1,117 @@
+package gui;
+
+import core.*;
+import storage.LogArchive;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+//Searches logs moved to the archive by their retention, see LogRetention. Nothing is read until a search is run,
+//and the search runs off the EDT since it opens the archive files
+public class ArchivedLogWindow extends SubWindow {
+
+    public static String windowName = "Archived Logs";
+    private static final int MAX_RESULTS = 2000;
+
+    private final LogArchive archive;
+
+    private JTextField searchField;
+    private JButton searchButton;
+    private JLabel statusLabel;
+    private LogTableModel tableModel;
+
+    public ArchivedLogWindow(MainWindow mainWindow, Inventory inventory, LogArchive archive, String initialSearch) {
+        super(mainWindow, windowName, inventory);
+        this.archive = archive;
+
+        setupUI();
+        searchField.setText(initialSearch == null ? "" : initialSearch);
+    }
+
+    @Override
+    public void setupUI() {
+        setLayout(new BorderLayout());
+
+        JPanel mainPanel = new JPanel(new BorderLayout(10, 10));
+        mainPanel.setBackground(UIUtils.BACKGROUND_MAIN);
+        mainPanel.setBorder(BorderFactory.createEmptyBorder(15, 20, 15, 20));
+
+        //Search bar
+        JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 5));
+        topPanel.setOpaque(false);
+        JLabel searchLabel = new JLabel("Search archived logs:");
+        searchLabel.setFont(UIUtils.FONT_UI_BOLD);
+        searchField = new JTextField(30);
+        searchField.setFont(UIUtils.FONT_UI_REGULAR);
+        searchField.setToolTipText("Message, type, log # or serial. Empty lists the newest archived logs.");
+        searchButton = new JButton("Search");
+        UIUtils.styleButton(searchButton);
+        statusLabel = new JLabel(" ");
+        statusLabel.setFont(UIUtils.FONT_UI_REGULAR);
+
+        topPanel.add(searchLabel);
+        topPanel.add(searchField);
+        topPanel.add(searchButton);
+        topPanel.add(statusLabel);
+        mainPanel.add(topPanel, BorderLayout.NORTH);
+
+        //Results
+        tableModel = new LogTableModel(new ArrayList<>());
+        JTable table = new JTable(tableModel);
+        LogTableModel.styleTable(table);
+        table.setAutoResizeMode(JTable.AUTO_RESIZE_ALL_COLUMNS);
+        table.setFont(UIUtils.FONT_UI_REGULAR);
+        table.setRowHeight(28);
+        table.setFillsViewportHeight(true);
+        LogTableModel.attachOpenListener(table, this::showLog); //Archived logs are read only
+        mainPanel.add(LogTableModel.createScrollPane(table), BorderLayout.CENTER);
+
+        add(mainPanel, BorderLayout.CENTER);
+
+        searchButton.addActionListener(e -> runSearch());
+        searchField.addActionListener(e -> runSearch());
+
+        setSize(new Dimension(1000, 650));
+        setLocationRelativeTo(getOwner());
+    }
+
+    private void runSearch() {
+        String text = searchField.getText().trim().toLowerCase();
+        searchButton.setEnabled(false);
+        statusLabel.setText("Searching...");
+
+        new Thread(() -> {
+            List<Log> found = archive.search(matches(text), MAX_RESULTS);
+            SwingUtilities.invokeLater(() -> {
+                tableModel.setLogs(new ArrayList<>(found));
+                statusLabel.setText(found.size() >= MAX_RESULTS
+                        ? "Showing the newest " + MAX_RESULTS + " matches"
+                        : found.size() + " archived log(s)");
+                searchButton.setEnabled(true);
+            });
+        }, "archive-search").start();
+    }
+
+    //Same fields as the main window search, matched as text since the archive has no word index
+    private static Predicate<Log> matches(String s) {
+        if (s.isEmpty()) return log -> true;
+        return log -> (log.getMessage() != null && log.getMessage().toLowerCase().contains(s))
+                || log.getType().toString().toLowerCase().contains(s)
+                || String.valueOf(log.getLogID()).contains(s)
+                || (log.getSerial() != null && log.getSerial().toLowerCase().contains(s));
+    }
+
+    private void showLog(Log log) {
+        JTextArea text = new JTextArea(log.toString());
+        text.setEditable(false);
+        text.setLineWrap(true);
+        text.setWrapStyleWord(true);
+        text.setFont(UIUtils.FONT_UI_REGULAR);
+        JScrollPane scroll = new JScrollPane(text);
+        scroll.setPreferredSize(new Dimension(500, 400));
+        JOptionPane.showMessageDialog(this, scroll, "Archived log #" + log.getLogID(), JOptionPane.PLAIN_MESSAGE);
+    }
+}
@@ -246,7 +246,7 @@ public class EditWindow extends SubWindow {
             String selectedSerial = finalSerialMap.get(selectedDisplay);
 
             if (selectedSerial != null && !selectedTags.contains(selectedSerial)) {
-                Item component = inventory.SerialToItemMap.get(selectedSerial);
+                Item component = inventory.getItemBySerial(selectedSerial);
                 if (component == null) return;
 
                 selectedTags.add(selectedSerial);
@@ -7,6 +7,7 @@ import javax.swing.border.*;
 
 import java.awt.*;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -192,24 +193,18 @@ public class ItemInfoWindow extends SubWindow {
         JPanel inner = new JPanel(new GridLayout(0, 1, 5, 5));
         inner.setOpaque(false);
 
-        for (Item parent : inventory.MainInventory.keySet()) {
-            if (parent.getComposedOf() != null && !parent.getComposedOf().isEmpty()) {
-                for (Item component : parent.getComposedOf().keySet()) {
-                    if (component.equals(item)) {
+        //Every composite that uses this item, also the ones that only use it through a sub-assembly
+        for (Item parent : inventory.getWhereUsed(item)) {
+            boolean direct = parent.getComposedOf() != null && parent.getComposedOf().containsKey(item);
 
-                        ImageIcon icon = parent.getIcon(48);
-                        if (parent.getImagePath().equals(Constants.NOT_FOUND_PNG)) {
-                            icon = null;
-                        }
-
-                        JLabel label = new JLabel("• " + parent.getName(), icon, JLabel.LEFT);
-                        label.setIconTextGap(10);
-                        inner.add(label);
-
-                        break; // matching parent found
-                    }
-                }
+            ImageIcon icon = parent.getIcon(48);
+            if (parent.getImagePath().equals(Constants.NOT_FOUND_PNG)) {
+                icon = null;
             }
+
+            JLabel label = new JLabel("• " + parent.getName() + (direct ? "" : " (through a sub-assembly)"), icon, JLabel.LEFT);
+            label.setIconTextGap(10);
+            inner.add(label);
         }
 
         return wrapSection(inner, "Used In");
@@ -232,7 +227,7 @@ public class ItemInfoWindow extends SubWindow {
                 border
         ));
 
-        List<Log> logs = logManager.itemToLogs.getOrDefault(item, new ArrayList<>());
+        Collection<Log> logs = logManager.getLogsForItem(item);
 
         if (logs.isEmpty()) {
             JLabel empty = new JLabel("No logs for this item. Something went wrong.", JLabel.CENTER);
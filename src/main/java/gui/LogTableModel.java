@@ -57,6 +57,12 @@ public class LogTableModel extends AbstractTableModel {
         fireTableDataChanged();
     }
 
+    //Rows already in display order (severity, then newest first), taken as they are
+    public void setSortedLogs(ArrayList<Log> sortedLogs) {
+        logs = sortedLogs;
+        fireTableDataChanged();
+    }
+
     public Log getLogAt(int row) {
         return logs.get(row);
     }
@@ -25,7 +25,7 @@ import javax.swing.text.StyledDocument;
 
 
 
-public class MainWindow extends JFrame implements Inventory.ItemListener {
+public class MainWindow extends JFrame implements ChangeBus.Listener {
 
     public final int windowWidth = 1200;
     public final int windowHeight = 800;
@@ -221,27 +221,42 @@ public class MainWindow extends JFrame implements Inventory.ItemListener {
     }
 
 
+    //With a search only the matching logs are given to the table, found through the log word index.
+    //Both lists come out in display order so the table does not sort them again
     public void refresh() {
-        ArrayList<Log> sortedLogs = getSortedLogs();
-        logTableModel.setLogs(sortedLogs);
-        logTableModel.fireTableDataChanged();
+        ArrayList<Log> sortedLogs = searchText == null || searchText.isBlank()
+                ? getSortedLogs()
+                : bySeverity(logManager.searchLogs(searchText));
+        logTableModel.setSortedLogs(sortedLogs);
         applyFilter();
     }
 
     private ArrayList<Log> getSortedLogs() {
 
-        ArrayList<Log> criticalLogs = new ArrayList<>(logManager.CriticalLogs);
-        criticalLogs.sort((a, b) -> Integer.compare(b.getLogID(), a.getLogID()));
-        ArrayList<Log> sorted = new ArrayList<>(criticalLogs);
-
-        ArrayList<Log> warningLogs = new ArrayList<>(logManager.WarningLogs);
-        warningLogs.sort((a, b) -> Integer.compare(b.getLogID(), a.getLogID()));
-        sorted.addAll(warningLogs);
-
-        ArrayList<Log> normalLogs = new ArrayList<>(logManager.NormalLogs);
-        normalLogs.sort((a, b) -> Integer.compare(b.getLogID(), a.getLogID()));
-        sorted.addAll(normalLogs);
+        //Each severity is already kept in id order, read newest first without sorting
+        ArrayList<Log> sorted = new ArrayList<>(logManager.AllLogs.size());
+        sorted.addAll(logManager.getNewestFirst(Log.Severity.Critical));
+        sorted.addAll(logManager.getNewestFirst(Log.Severity.Warning));
+        sorted.addAll(logManager.getNewestFirst(Log.Severity.Normal));
+        return sorted;
+    }
 
+    //Search results come newest first, grouped by severity in one pass like the full list
+    private static ArrayList<Log> bySeverity(List<Log> newestFirst) {
+        ArrayList<Log> critical = new ArrayList<>();
+        ArrayList<Log> warning = new ArrayList<>();
+        ArrayList<Log> normal = new ArrayList<>();
+        for (Log l : newestFirst) {
+            switch (l.getSeverity()) {
+                case Critical -> critical.add(l);
+                case Warning -> warning.add(l);
+                case Normal -> normal.add(l);
+            }
+        }
+        ArrayList<Log> sorted = new ArrayList<>(newestFirst.size());
+        sorted.addAll(critical);
+        sorted.addAll(warning);
+        sorted.addAll(normal);
         return sorted;
     }
 
@@ -335,23 +350,20 @@ public class MainWindow extends JFrame implements Inventory.ItemListener {
                         if (!showCritical) return false;
                     }
                 }
-
-                //Search filter
-                if (searchText == null || searchText.isBlank()) return true;
-                String s = searchText.toLowerCase();
-                return log.getMessage().toLowerCase().contains(s) //Contains message
-
-                        || log.getType().toString().toLowerCase().contains(s) //Type
-
-                        || String.valueOf(log.getLogID()).contains(s) //ID
-
-                        || log.getSerial().toLowerCase().contains(s); //Serial
+                return true; //The search is applied in refresh()
             }
         });
     }
 
-    public void onChange(Item item) {
-        checkAndDestroy(item);
+    //Coalesced changes, at most once per frame. The log table is rebuilt once for the whole batch
+    @Override
+    public void onChanges(ChangeBus.Batch batch) {
+        for (Item item : batch.getRemovedItems()) {
+            checkAndDestroy(item);
+        }
+        if (batch.logsTouched()) {
+            refresh();
+        }
     }
 
     public void addToStartupWindows(){
@@ -384,8 +396,7 @@ public class MainWindow extends JFrame implements Inventory.ItemListener {
 
         platformManager.setFileManager(fileManager);
 
-        logManager.addChangeListener(() -> SwingUtilities.invokeLater(this::refresh));
-        inventory.addChangeListener(this);
+        inventory.getChangeBus().addListener(this);
 
         // Autosave
         autoSaveTimer = new Timer(config.autoSaveTimer, e -> {
@@ -585,9 +596,10 @@ public class MainWindow extends JFrame implements Inventory.ItemListener {
         JButton fetchOrdersBtn = new JButton("Fetch Orders");
         JButton unlinkedItemsBtn = new JButton("<html><div style='text-align:center;'>Find unlinked items<br>on platforms</div></html>");
         JButton saveInfoBtn = new JButton("Save information");
+        JButton archivedLogsBtn = new JButton("<html><div style='text-align:center;'>Search archived<br>logs</div></html>");
         JButton openDebugBtn = new JButton("<html><div style='text-align:center;'>Open Debug Console<br>(Alt + ~)</div></html>");
 
-        JButton[] toolButtons = {fetchOrdersBtn, unlinkedItemsBtn,saveInfoBtn, openDebugBtn};
+        JButton[] toolButtons = {fetchOrdersBtn, unlinkedItemsBtn,saveInfoBtn, archivedLogsBtn, openDebugBtn};
         for (JButton btn : toolButtons) {
             btn.setAlignmentX(Component.CENTER_ALIGNMENT);
             btn.setMaximumSize(new Dimension(200, 45));
@@ -595,6 +607,8 @@ public class MainWindow extends JFrame implements Inventory.ItemListener {
             leftTools.add(btn);
             leftTools.add(Box.createRigidArea(new Dimension(0, 20)));
         }
+        archivedLogsBtn.addActionListener(e -> {new ArchivedLogWindow(this, inventory, fileManager.getLogArchive(), searchText);
+            requestFocusInWindow();});
         fetchOrdersBtn.addActionListener(e -> {
             if(!fetchOrdersBtn.isEnabled()) return;
             platformManager.fetchAllRecentOrders();
@@ -848,7 +862,7 @@ public class MainWindow extends JFrame implements Inventory.ItemListener {
         ));
 
 
-        logTableModel = new LogTableModel(logManager.AllLogs);
+        logTableModel = new LogTableModel(new ArrayList<>(logManager.AllLogs)); //The model sorts and refills its list
 
         logTable = new JTable(logTableModel);
 
@@ -872,7 +886,12 @@ public class MainWindow extends JFrame implements Inventory.ItemListener {
 
         //Search
         searchField.getDocument().addDocumentListener(new DocumentListener() {
-            private void update() { searchText = searchField.getText(); applyFilter(); }
+            private void update() {
+                String previous = searchText;
+                searchText = searchField.getText();
+                if (searchText.trim().equals(previous.trim())) return; //Same query, ex: a space typed or blank to blank
+                refresh();
+            }
             public void insertUpdate(DocumentEvent e) { update(); }
             public void removeUpdate(DocumentEvent e) { update(); }
             public void changedUpdate(DocumentEvent e) { update(); }
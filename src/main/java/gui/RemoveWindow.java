@@ -199,7 +199,7 @@ public class RemoveWindow extends SubWindow {
                 return;
             }
 
-            Item target = inventory.SerialToItemMap.get(selectedSerial);
+            Item target = inventory.getItemBySerial(selectedSerial);
             if (target == null){
                 JOptionPane.showMessageDialog(this, "Error: Item could not be accessed.", "Error", JOptionPane.ERROR_MESSAGE);
                 return;
@@ -262,7 +262,7 @@ public class RemoveWindow extends SubWindow {
         breakDownButton.addActionListener(e -> {
             String selectedItem = (String) itemDropdown.getEditor().getItem();
             String selectedSerial = displayToSerialMap.get(selectedItem);
-            Item currSelected = inventory.SerialToItemMap.get(selectedSerial);
+            Item currSelected = inventory.getItemBySerial(selectedSerial);
             if (currSelected != null){
                 if (!currSelected.isComposite()){
                     currSelected = null;
@@ -360,7 +360,7 @@ public class RemoveWindow extends SubWindow {
         deleteButton.addActionListener(e ->{
             String selectedItem = (String) itemDropdown.getEditor().getItem();
             String selectedSerial = displayToSerialMap.get(selectedItem);
-            Item target = inventory.SerialToItemMap.get(selectedSerial);
+            Item target = inventory.getItemBySerial(selectedSerial);
 
             if (selectedItem == null || selectedItem.trim().isEmpty()) {
                 JOptionPane.showMessageDialog(
@@ -506,7 +506,7 @@ public class RemoveWindow extends SubWindow {
 
             String display = (String) itemDropdown.getEditor().getItem();
             String serial = displayToSerialMap.get(display);
-            Item target = inventory.SerialToItemMap.get(serial);
+            Item target = inventory.getItemBySerial(serial);
             Integer amountToBreak = getAmountFromTextBox(amountBox);
 
             if(amountToBreak == null){
@@ -636,7 +636,7 @@ public class RemoveWindow extends SubWindow {
                 //ignore
             }
         }
-        Item currentTarget = inventory.SerialToItemMap.get(currentSerial);
+        Item currentTarget = inventory.getItemBySerial(currentSerial);
         removeButton.setText(updateReduceText(currentTarget, currentAmount));
     }
 
@@ -699,7 +699,7 @@ public class RemoveWindow extends SubWindow {
 
         String display = (String) itemDropdown.getEditor().getItem();
         String serial = displayToSerialMap.get(display);
-        Item target = inventory.SerialToItemMap.get(serial);
+        Item target = inventory.getItemBySerial(serial);
 
 
         if (target == null || !target.isComposite()) {
@@ -145,10 +145,10 @@ public abstract class SubWindow extends JFrame {
                         .filter(d -> !d.equals(selectedItem[0]))
                         .forEach(model::addElement);
             } else {
+                Set<Item> matches = inventory.findItems(text);
                 displayList.stream()
                         .filter(d -> !d.equals(selectedItem[0]))
-                        .filter(d -> d.toLowerCase().contains(text) ||
-                                displayToSerialMap.get(d).toLowerCase().contains(text))
+                        .filter(d -> matches.contains(inventory.getItemBySerial(displayToSerialMap.get(d))))
                         .forEach(model::addElement);
             }
             rebuilding[0] = false;
@@ -215,10 +215,14 @@ public abstract class SubWindow extends JFrame {
         return new DropdownResult(itemDropdown, displayToSerialMap);
     }
     public void confirmRemoveItem(Item target){
-        if (!target.getComposesInto().isEmpty()) {
+        //Every kit affected, also the ones that only use it through a sub-assembly
+        Set<Item> affected = inventory.getWhereUsed(target);
+        if (!affected.isEmpty()) {
             StringBuilder composeList = new StringBuilder();
-            for(Item i : target.getComposesInto()){
-                composeList.append(i.getName()).append("\n");
+            for(Item i : affected){
+                composeList.append(i.getName());
+                if (!i.getComposedOf().containsKey(target)) composeList.append(" (through a sub-assembly)");
+                composeList.append("\n");
             }
             String composeListStr = composeList.toString();
             int confirm = JOptionPane.showConfirmDialog(
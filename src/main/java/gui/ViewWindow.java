@@ -12,7 +12,7 @@ import java.util.*;
 import java.util.List;
 
 
-public class ViewWindow extends SubWindow {
+public class ViewWindow extends SubWindow implements ChangeBus.Listener {
     public static String windowName = "View Items and Update Inventory";
 
     private JTable itemTable;
@@ -36,7 +36,7 @@ public class ViewWindow extends SubWindow {
         this.logManager = logManager;
 
         setupUI();
-        logManager.addChangeListener(() -> SwingUtilities.invokeLater(this::refreshTable));
+        inventory.getChangeBus().addListener(this); //Held weakly, dropped once this window is closed and collected
 
     }
 
@@ -190,7 +190,7 @@ public class ViewWindow extends SubWindow {
         //Table setup
         String[] cols = {
                 "Icon","Amount", "Name", "Serial", "Low Trigger", "Composite",
-                "Amazon SKU", "eBay SKU", "Walmart SKU"
+                "Amazon SKU", "eBay SKU", "Walmart SKU", "Buildable"
         };
 
         tableModel = new DefaultTableModel(cols, 0) {
@@ -370,6 +370,14 @@ public class ViewWindow extends SubWindow {
     }
 
 
+    //One refresh per delivered batch, however many changes it holds
+    @Override
+    public void onChanges(ChangeBus.Batch batch) {
+        if (batch.itemsTouched() || batch.logsTouched()) {
+            refreshTable();
+        }
+    }
+
     //Populate table
     private void refreshTable() {
         if (isRefreshing) return;
@@ -405,7 +413,9 @@ public class ViewWindow extends SubWindow {
             }
 
             tableModel.setRowCount(0);
-            List<Item> items = new ArrayList<>(inventory.MainInventory.keySet());
+            //One point in time for every row, the worker reads it while the inventory keeps changing
+            InventorySnapshot snapshot = inventory.getSnapshot();
+            List<Item> items = snapshot.getItems();
 
             ImageIcon defaultIcon = new ImageIcon(Constants.NOT_FOUND_PNG);
             long[] summary = new long[]{0, 0, 0};
@@ -413,7 +423,8 @@ public class ViewWindow extends SubWindow {
                 @Override
                 protected Void doInBackground() {
                     for (Item i : items) {
-                        updateSummary(summary, i);
+                        int quantity = snapshot.getQuantity(i);
+                        updateSummary(summary, i, quantity);
                         ImageIcon icon;
                         String iconPath = i.getImagePath();
                         if (iconPath == null || iconPath.equals(Constants.NOT_FOUND_PNG) || !new File(iconPath).exists()) {
@@ -426,14 +437,15 @@ public class ViewWindow extends SubWindow {
 
                         Object[] row = new Object[]{
                                 scaledIcon,
-                                inventory.getQuantity(i),
+                                quantity,
                                 i.getName(),
                                 i.getSerial(),
                                 i.getLowStockTrigger(),
                                 i.isComposite() ? "Yes" : "No",
                                 nullToNA(i.getAmazonSellerSKU()),
                                 nullToNA(i.getEbaySellerSKU()),
-                                nullToNA(i.getWalmartSellerSKU())
+                                nullToNA(i.getWalmartSellerSKU()),
+                                i.isComposite() ? inventory.getBuildableQuantity(i) : "N/A" //Kept by the inventory, not recomputed here
                         };
                         publish(row);
                     }
@@ -458,8 +470,7 @@ public class ViewWindow extends SubWindow {
             isRefreshing = false;
         }
     }
-    private void updateSummary(long[] summary, Item i) {
-        int quantity = inventory.getQuantity(i);
+    private void updateSummary(long[] summary, Item i, int quantity) {
         summary[0] ++;
         summary[1] = quantity;
         if(quantity > i.getLowStockTrigger()){
@@ -480,7 +491,7 @@ public class ViewWindow extends SubWindow {
         int modelCol = itemTable.convertColumnIndexToModel(serialColIndex);
         String serial = (String) itemTable.getModel().getValueAt(modelRow, modelCol);
 
-        return inventory.SerialToItemMap.get(serial);
+        return inventory.getItemBySerial(serial);
     }
 
     private String nullToNA(String s) {
@@ -504,13 +515,14 @@ public class ViewWindow extends SubWindow {
 
                 cm.getColumn(0).setPreferredWidth((int)(width * 0.10)); //Icon
                 cm.getColumn(1).setPreferredWidth((int)(width * 0.07)); //Quantity
-                cm.getColumn(2).setPreferredWidth((int)(width * 0.19)); //Name
+                cm.getColumn(2).setPreferredWidth((int)(width * 0.13)); //Name
                 cm.getColumn(3).setPreferredWidth((int)(width * 0.11)); //Serial
                 cm.getColumn(4).setPreferredWidth((int)(width * 0.10)); //Low Trigger
                 cm.getColumn(5).setPreferredWidth((int)(width * 0.10)); //Composite
                 cm.getColumn(6).setPreferredWidth((int)(width * 0.11)); //Amazon SKU
                 cm.getColumn(7).setPreferredWidth((int)(width * 0.11)); //eBay SKU
                 cm.getColumn(8).setPreferredWidth((int)(width * 0.11)); //Walmart SKU
+                cm.getColumn(9).setPreferredWidth((int)(width * 0.06)); //Buildable
             }
         });
         return scrollPane;
@@ -581,15 +593,11 @@ public class ViewWindow extends SubWindow {
     }
 
     private RowFilter<DefaultTableModel, Integer> createRowFilter(String searchText) {
+        //Name, serial and sku matches come from the inventory search index once per filter, not per row
+        Set<Item> matches = searchText.isEmpty() ? Collections.emptySet() : inventory.findItems(searchText);
         return new RowFilter<>() {
             @Override
             public boolean include(Entry<? extends DefaultTableModel, ? extends Integer> entry) {
-                String name    = entry.getStringValue(2).toLowerCase(); //Name
-                String serial  = entry.getStringValue(3).toLowerCase(); //Serial
-                String amazon  = entry.getStringValue(6).toLowerCase(); //Amazon SKU
-                String ebay    = entry.getStringValue(7).toLowerCase(); //eBay SKU
-                String walmart = entry.getStringValue(8).toLowerCase(); //Walmart SKU
-
                 Item i = entryToItem(entry);
                 if (i == null) return false;
 
@@ -605,11 +613,7 @@ public class ViewWindow extends SubWindow {
                 // Apply search text filter
                 if (searchText.isEmpty()) return true;
 
-                return name.contains(searchText)
-                        || serial.contains(searchText)
-                        || amazon.contains(searchText)
-                        || ebay.contains(searchText)
-                        || walmart.contains(searchText);
+                return matches.contains(i);
             }
         };
     }
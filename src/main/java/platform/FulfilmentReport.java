@@ -0,0 +1,106 @@
+package platform;
+
+import core.InventoryFork;
+import core.Item;
+
+import java.util.*;
+
+//Result of PlatformManager.simulateOrders(), how each order would be handled if it came in now
+//Orders are checked in the given order on one fork, so later orders only see the stock earlier ones left
+public class FulfilmentReport {
+
+    //Order outcomes, worst line wins
+    public enum Outcome {
+        DIRECT,           //Every line reserved from free stock
+        VIA_COMPOSITION,  //At least one line has to be built from components
+        NEEDS_BREAKDOWN,  //Out of stock, every short line can be covered by breaking down kits
+        OUT_OF_STOCK,     //Out of stock and at least one short line has no breakdown that covers it
+        NOT_REGISTERED    //At least one sku is not linked to an item
+    }
+
+    public enum LineOutcome { IN_STOCK, VIA_COMPOSITION, OUT_OF_STOCK, NOT_REGISTERED }
+
+    //item is null when not registered. breakdowns are the options for the quantity short, fewest units first
+    public record LineResult(String sku, Item item, int quantity, LineOutcome outcome, List<Map<Item, Integer>> breakdowns) {}
+
+    public record OrderResult(PlatformType platform, String orderId, Outcome outcome, List<LineResult> lines) {}
+
+    private final InventoryFork fork;
+    private final List<OrderResult> orders = new ArrayList<>();
+    private final Map<Outcome, Integer> counts = new EnumMap<>(Outcome.class);
+    private final List<String> skipped = new ArrayList<>(); //Not confirmed or already handled for real
+
+    FulfilmentReport(InventoryFork fork) {
+        this.fork = fork;
+    }
+
+    void add(OrderResult result) {
+        orders.add(result);
+        counts.merge(result.outcome(), 1, Integer::sum);
+    }
+
+    void skip(String orderId) {
+        skipped.add(orderId);
+    }
+
+    //Derived the same way handleNewOrder picks its log type, with out of stock split by whether breakdowns help
+    static Outcome outcomeOf(List<LineResult> lines) {
+        boolean anyShort = false;
+        boolean allShortCoverable = true;
+        boolean anyViaComposition = false;
+        for (LineResult line : lines) {
+            switch (line.outcome()) {
+                case NOT_REGISTERED -> {
+                    return Outcome.NOT_REGISTERED;
+                }
+                case OUT_OF_STOCK -> {
+                    anyShort = true;
+                    if (line.breakdowns().isEmpty()) allShortCoverable = false;
+                }
+                case VIA_COMPOSITION -> anyViaComposition = true;
+                case IN_STOCK -> {}
+            }
+        }
+        if (anyShort) return allShortCoverable ? Outcome.NEEDS_BREAKDOWN : Outcome.OUT_OF_STOCK;
+        return anyViaComposition ? Outcome.VIA_COMPOSITION : Outcome.DIRECT;
+    }
+
+    //-------------------------------<Results>-------------------------------
+    public List<OrderResult> getOrders() {
+        return Collections.unmodifiableList(orders);
+    }
+
+    public List<OrderResult> getOrders(Outcome outcome) {
+        List<OrderResult> result = new ArrayList<>();
+        for (OrderResult o : orders) {
+            if (o.outcome() == outcome) result.add(o);
+        }
+        return result;
+    }
+
+    public int count(Outcome outcome) {
+        return counts.getOrDefault(outcome, 0);
+    }
+
+    public List<String> getSkippedOrderIds() {
+        return Collections.unmodifiableList(skipped);
+    }
+
+    //Stock and reservations as they would be after every simulated order, free to keep simulating on
+    public InventoryFork getFork() {
+        return fork;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Simulated ").append(orders.size()).append(" orders");
+        if (!skipped.isEmpty()) sb.append(" (").append(skipped.size()).append(" skipped)");
+        sb.append(":\n");
+        for (Outcome outcome : Outcome.values()) {
+            sb.append("  ").append(outcome).append(": ").append(count(outcome)).append("\n");
+        }
+        return sb.toString();
+    }
+    //-------------------------------</Results>-------------------------------
+}
@@ -47,11 +47,15 @@ public class PlatformManager {
     public Map<PlatformType, Map<String, BaseSeller.Order>> allOrders =
             new ConcurrentHashMap<>();
 
+    //Sales per day per item and sku, kept up to date as orders are applied
+    private final SalesVelocity salesVelocity;
+
     final Object fetchLock = new Object();
     public PlatformManager(Inventory inv, LogManager lm, APIFileManager api) {
         inventory = inv;
         logManager = lm;
         apiFileManager = api;
+        salesVelocity = new SalesVelocity(inv);
         for (PlatformType type : PlatformType.values()) {
             allOrders.put(type, new ConcurrentHashMap<>());
         }
@@ -70,6 +74,13 @@ public class PlatformManager {
     public void setFileManager(FileManager fm){
         this.fileManager = fm;
     }
+    public SalesVelocity getSalesVelocity() {
+        return salesVelocity;
+    }
+    //After orders are loaded, from then on applied orders keep it up to date
+    public void rebuildSalesVelocity() {
+        salesVelocity.rebuild(allOrders);
+    }
     public void fetchAllRecentOrders() {
         boolean anyConnected = false;
         for(PlatformType p : PlatformType.values()){
@@ -247,11 +258,18 @@ public class PlatformManager {
 
             if (oldOrder == null) { //Neworder has a brand-new order
                 handleNewOrder(platform, newOrder);
+                salesVelocity.orderAdded(platform, newOrder);
+                newOrderCount++;
             } else if (!oldOrder.equals(newOrder)) { //Order has changed
                 handleOrderStatusChange(platform, oldOrder, newOrder);
+                salesVelocity.orderChanged(platform, oldOrder, newOrder);
+                changedOrderCount++;
             }
         }
         allOrders.putAll(newOrders);
+        if (newOrderCount > 0 || changedOrderCount > 0) {
+            inventory.getChangeBus().publish(new ChangeBus.OrdersApplied(platform, newOrderCount, changedOrderCount));
+        }
     }
     private void handleNewOrder(PlatformType platform, BaseSeller.Order newOrder) {
         if(newOrder.getStatus() == BaseSeller.OrderStatus.CANCELLED){ //Dont care
@@ -269,88 +287,145 @@ public class PlatformManager {
         System.out.println("New order " +platform.getDisplayName() + " order ID : " + newOrder.getOrderId());
 
         if (newOrder.getStatus() == BaseSeller.OrderStatus.CONFIRMED) {
-            List<BaseSeller.OrderPacket> soldItems = newOrder.getItems();
-
-            boolean allInStock = true;
-            boolean registered = true;
-            boolean anyViaComposition = false;
-            StringBuilder orderSummary = new StringBuilder();
-            StringBuilder breakdownSuggestions = new StringBuilder();
-            orderSummary.append(platform.getDisplayName()).append("Order ").append(newOrder.getOrderId()).append(" received: \n");
-
-            for (BaseSeller.OrderPacket op : soldItems) {
-                String sku = op.sku();
-                int quantitySold = op.quantity();
-                Item itemSold = inventory.getItemByPlatformAndSKU(platform, sku);
+            NewOrderCheck check = checkNewOrder(inventory, platform, newOrder);
+            logManager.createLog(check.type(), newOrder.getItems().size(),
+                    check.summary(), "");
+        }
+    }
 
-                if (itemSold == null) {
-                    registered = false;
-                    orderSummary.append(quantitySold).append("x ").append(sku).append(" (NOT REGISTERED), \n");
+    //What handling a confirmed order decided: the log to write and the outcome per line
+    private record NewOrderCheck(Log.LogType type, String summary, FulfilmentReport.OrderResult result) {}
+
+    //Reserves a confirmed order's lines in stock, or releases them again when something is out of stock
+    //stock is the inventory, or a fork when simulating. Nothing is logged here
+    private NewOrderCheck checkNewOrder(OrderStock stock, PlatformType platform, BaseSeller.Order newOrder) {
+        List<BaseSeller.OrderPacket> soldItems = newOrder.getItems();
+        List<FulfilmentReport.LineResult> lines = new ArrayList<>();
+
+        boolean allInStock = true;
+        boolean registered = true;
+        boolean anyViaComposition = false;
+        StringBuilder orderSummary = new StringBuilder();
+        StringBuilder breakdownSuggestions = new StringBuilder();
+        orderSummary.append(platform.getDisplayName()).append("Order ").append(newOrder.getOrderId()).append(" received: \n");
+
+        for (BaseSeller.OrderPacket op : soldItems) {
+            String sku = op.sku();
+            int quantitySold = op.quantity();
+            Item itemSold = stock.getItemByPlatformAndSKU(platform, sku);
+
+            if (itemSold == null) {
+                registered = false;
+                orderSummary.append(quantitySold).append("x ").append(sku).append(" (NOT REGISTERED), \n");
+                lines.add(new FulfilmentReport.LineResult(sku, null, quantitySold, FulfilmentReport.LineOutcome.NOT_REGISTERED, List.of()));
+            } else {
+                //Check and reserve in one step so a manual edit on another thread can't take the same units
+                if (stock.tryReserveItemForOrder(itemSold, newOrder.getOrderId(), quantitySold)) {
+                    orderSummary.append(quantitySold).append("x ").append(itemSold.getName()).append(", \n");
+                    lines.add(new FulfilmentReport.LineResult(sku, itemSold, quantitySold, FulfilmentReport.LineOutcome.IN_STOCK, List.of()));
                 } else {
-                    if (inventory.getAvailableQuantity(itemSold) >= quantitySold) {
-                        orderSummary.append(quantitySold).append("x ").append(itemSold.getName()).append(", \n");
+                    //Try via composition
+                    int currentQuantity = stock.getAvailableQuantity(itemSold);
+                    int quantityNeeded = quantitySold - currentQuantity;
+
+                    if (stock.isItemInStockRecursive(itemSold, quantityNeeded)) {
+                        anyViaComposition = true;
+                        orderSummary.append(quantitySold).append("x ").append(itemSold.getName())
+                                .append(" (via composition), \n");
+                        lines.add(new FulfilmentReport.LineResult(sku, itemSold, quantitySold, FulfilmentReport.LineOutcome.VIA_COMPOSITION, List.of()));
                     } else {
-                        //Try via composition
-                        int currentQuantity = inventory.getAvailableQuantity(itemSold);
-                        int quantityNeeded = quantitySold - currentQuantity;
-
-                        if (inventory.isItemInStockRecursive(itemSold, quantityNeeded)) {
-                            anyViaComposition = true;
-                            orderSummary.append(quantitySold).append("x ").append(itemSold.getName())
-                                    .append(" (via composition), \n");
-                        } else {
-                            allInStock = false;
-                            orderSummary.append(quantitySold).append("x ").append(itemSold.getName())
-                                    .append(" (OUT OF STOCK), \n");
-                            List<Map<Item, Integer>> breakdowns = inventory.possibleBreakDownsForItem(itemSold, quantityNeeded);
-
-                            if (!breakdowns.isEmpty()) {
-                                if (!breakdownSuggestions.isEmpty()) {
-                                    breakdownSuggestions.append("\n\nThis can be solved by breaking down the following items:\n");
-                                }
-                                breakdownSuggestions.append("For ").append(quantityNeeded).append("x ").append(itemSold.getName()).append(":\n");
-                                for (int i = 0; i < Math.min(breakdowns.size(), 3); i++) {
-                                    breakdownSuggestions.append("  Option ").append(i + 1).append(": ");
-                                    Map<Item, Integer> breakdown = breakdowns.get(i);
-                                    boolean first = true;
-                                    for (Map.Entry<Item, Integer> entry : breakdown.entrySet()) {
-                                        if (!first) breakdownSuggestions.append(", ");
-                                        breakdownSuggestions.append(entry.getValue()).append("x ").append(entry.getKey().getName());
-                                        first = false;
-                                    }
-                                    breakdownSuggestions.append("\n");
+                        allInStock = false;
+                        orderSummary.append(quantitySold).append("x ").append(itemSold.getName())
+                                .append(" (OUT OF STOCK), \n");
+                        List<Map<Item, Integer>> breakdowns = stock.possibleBreakDownsForItem(itemSold, quantityNeeded);
+                        lines.add(new FulfilmentReport.LineResult(sku, itemSold, quantitySold, FulfilmentReport.LineOutcome.OUT_OF_STOCK, breakdowns));
+
+                        if (!breakdowns.isEmpty()) {
+                            if (!breakdownSuggestions.isEmpty()) {
+                                breakdownSuggestions.append("\n\nThis can be solved by breaking down the following items:\n");
+                            }
+                            breakdownSuggestions.append("For ").append(quantityNeeded).append("x ").append(itemSold.getName()).append(":\n");
+                            for (int i = 0; i < Math.min(breakdowns.size(), 3); i++) {
+                                breakdownSuggestions.append("  Option ").append(i + 1).append(": ");
+                                Map<Item, Integer> breakdown = breakdowns.get(i);
+                                boolean first = true;
+                                for (Map.Entry<Item, Integer> entry : breakdown.entrySet()) {
+                                    if (!first) breakdownSuggestions.append(", ");
+                                    breakdownSuggestions.append(entry.getValue()).append("x ").append(entry.getKey().getName());
+                                    first = false;
                                 }
-                            }else{
-                                breakdownSuggestions.append("\n\nNo viable combination of breakdowns could be found to fulfill this order");
+                                breakdownSuggestions.append("\n");
                             }
+                        }else{
+                            breakdownSuggestions.append("\n\nNo viable combination of breakdowns could be found to fulfill this order");
                         }
                     }
                 }
             }
+        }
 
-            if (orderSummary.length() >= 2 && orderSummary.substring(orderSummary.length() - 2).equals(", ")) {
-                orderSummary.setLength(orderSummary.length() - 2);
-            }
-            orderSummary.append(breakdownSuggestions);
-            if (allInStock || anyViaComposition) {
-                inventory.reserveItemsForOrder(platform, newOrder);
-            }
+        if (orderSummary.length() >= 2 && orderSummary.substring(orderSummary.length() - 2).equals(", ")) {
+            orderSummary.setLength(orderSummary.length() - 2);
+        }
+        orderSummary.append(breakdownSuggestions);
+        if (allInStock || anyViaComposition) {
+            stock.reserveItemsForOrder(platform, newOrder);
+        } else {
+            stock.releaseReservationForOrder(platform, newOrder); //Undo lines reserved above
+        }
 
-            Log.LogType type;
+        Log.LogType type;
 
-            if (!registered) {
-                type = Log.LogType.OrderReceivedItemNotRegistered;
-            } else if (!allInStock) {
-                type = Log.LogType.OrderReceivedItemOutOfStock;
-            } else if (anyViaComposition) {
-                type = Log.LogType.OrderReceivedItemSellsViaComposition;
-            } else {
-                type = Log.LogType.OrderReceived;
+        if (!registered) {
+            type = Log.LogType.OrderReceivedItemNotRegistered;
+        } else if (!allInStock) {
+            type = Log.LogType.OrderReceivedItemOutOfStock;
+        } else if (anyViaComposition) {
+            type = Log.LogType.OrderReceivedItemSellsViaComposition;
+        } else {
+            type = Log.LogType.OrderReceived;
+        }
+
+        FulfilmentReport.OrderResult result = new FulfilmentReport.OrderResult(platform, newOrder.getOrderId(),
+                FulfilmentReport.outcomeOf(lines), lines);
+        return new NewOrderCheck(type, orderSummary.toString(), result);
+    }
+
+    //Item -> units on every confirmed order not shipped yet, across platforms. Lines with unregistered skus are left out
+    //Stock is already reserved for these, explode them with Inventory.explodeBom(demand, incoming, false)
+    public Map<Item, Integer> getOpenOrderDemand() {
+        Map<Item, Integer> demand = new LinkedHashMap<>();
+        for (Map.Entry<PlatformType, Map<String, BaseSeller.Order>> platformOrders : allOrders.entrySet()) {
+            for (BaseSeller.Order order : platformOrders.getValue().values()) {
+                if (order.getStatus() != BaseSeller.OrderStatus.CONFIRMED) continue;
+                for (BaseSeller.OrderPacket op : order.getItems()) {
+                    Item item = inventory.getItemByPlatformAndSKU(platformOrders.getKey(), op.sku());
+                    if (item != null) demand.merge(item, op.quantity(), Integer::sum);
+                }
             }
+        }
+        return demand;
+    }
 
-            logManager.createLog(type, soldItems.size(),
-                    orderSummary.toString(), "");
+    //Dry run of orders against a fork of the inventory. Nothing real is reserved, logged or saved
+    //Confirmed orders go through the same checks as a newly fetched one, in the given order, so each only sees
+    //the stock the ones before it left. Orders that are not confirmed or were already handled for real are skipped
+    public FulfilmentReport simulateOrders(PlatformType platform, Collection<BaseSeller.Order> orders) {
+        return simulateOrders(inventory.fork(), platform, orders);
+    }
+
+    //Continues on a given fork, e.g. to run the orders of several platforms one after another
+    public FulfilmentReport simulateOrders(InventoryFork fork, PlatformType platform, Collection<BaseSeller.Order> orders) {
+        FulfilmentReport report = new FulfilmentReport(fork);
+        Map<String, BaseSeller.Order> known = allOrders.get(platform);
+        for (BaseSeller.Order order : orders) {
+            if (order.getStatus() != BaseSeller.OrderStatus.CONFIRMED || known.containsKey(order.getOrderId())) {
+                report.skip(order.getOrderId());
+                continue;
+            }
+            report.add(checkNewOrder(fork, platform, order).result());
         }
+        return report;
     }
     private void handleOrderStatusChange(PlatformType platform, BaseSeller.Order oldOrder, BaseSeller.Order newOrder) {
         if (newOrder.getStatus() == BaseSeller.OrderStatus.CANCELLED) {
@@ -399,6 +474,9 @@ public class PlatformManager {
             StringBuilder breakdownSuggestions = new StringBuilder();
             orderSummary.append(platform.getDisplayName()).append("Order ").append(newOrder.getOrderId()).append(" shipped:\n");
 
+            //Every line of the order is collected here and applied in one commit with one log
+            InventoryTransaction shipment = inventory.beginTransaction(newOrder.getOrderId());
+
 
             for (BaseSeller.OrderPacket op : soldItems) {
 
@@ -406,11 +484,12 @@ public class PlatformManager {
                 int quantitySold = op.quantity();
                 Item itemSold = inventory.getItemByPlatformAndSKU(platform, sku);
 
-                int available = inventory.getAvailableQuantity(itemSold);
+                //This order's own reservation counts as free stock, earlier lines of the order do not
+                int available = shipment.getAvailableQuantity(itemSold);
 
                 //In stock
                 if (available >= quantitySold) {
-                    inventory.decreaseItemAmount(itemSold, quantitySold);
+                    shipment.remove(itemSold, quantitySold);
                     orderSummary.append(quantitySold).append("x ").append(itemSold.getName()).append("\n");
                     continue;
                 }
@@ -418,10 +497,12 @@ public class PlatformManager {
                 //Attempt composition
                 int quantityNeeded = quantitySold - available;
 
-                if (inventory.isItemInStockRecursive(itemSold, quantityNeeded)) {
+                //Takes what is on hand first, then builds the rest from components. One walk answers both
+                AllocationPlan plan = inventory.planAllocation(itemSold, quantitySold, shipment);
+                if (plan.isInStock()) {
 
-                    Map<Item, Integer> partsNeeded =
-                            inventory.getAmountToReduceStockRecursive(itemSold, quantityNeeded);
+                    plan.applyTo(shipment);
+                    Map<Item, Integer> partsNeeded = plan.getFromStock();
 
                     anyViaComposition = true;
 
@@ -497,7 +578,6 @@ public class PlatformManager {
                 orderSummary.setLength(orderSummary.length() - 2);
             }
             orderSummary.append(breakdownSuggestions);
-            inventory.releaseReservationForOrder(platform, newOrder);
 
             Log.LogType type;
             if (!allFulfilled) {
@@ -508,8 +588,15 @@ public class PlatformManager {
                 type = Log.LogType.ItemShipped;
             }
 
-            logManager.createLog(type, soldItems.size(),
-                    orderSummary.toString(), "");
+            try {
+                shipment.commit(type, soldItems.size(), orderSummary.toString(), "");
+            } catch (IllegalStateException e) {
+                logManager.createLog(Log.LogType.SystemError, soldItems.size(),
+                        platform.getDisplayName() + "Order " + newOrder.getOrderId() +
+                                " shipped but stock could not be reduced. No inventory changes made.\n" + e.getMessage() +
+                                "\n\n" + orderSummary, "");
+            }
+            inventory.releaseReservationForOrder(platform, newOrder);
         }
 
         //Edge cases
@@ -0,0 +1,203 @@
+package platform;
+
+import core.FlatBom;
+import core.Inventory;
+import core.Item;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.*;
+
+//Units sold per day over the last 7, 30 and 90 days, per item, per platform sku and for the parts used in what sold
+//Each sold order is added once, into the day it was last updated on (orders carry no placed date), and taken out again
+//if it is cancelled, so keeping up after a fetch only costs the new and changed orders. History is only read by rebuild()
+//on load. Parts are credited through the flattened bom as it was when the order came in.
+//Reorder points are suggested from the 30 day demand (sold plus used in what sold) over a lead time with safety stock.
+//Owned by PlatformManager, see getSalesVelocity()
+public class SalesVelocity {
+
+    public static final int[] WINDOWS = {7, 30, 90};
+    static final int DAYS = 90;                 //Longest window, older days are dropped
+    static final int REORDER_WINDOW = 30;       //Days the reorder point demand is averaged over
+    static final double SAFETY_FACTOR = 1.65;   //Standard deviations of lead time demand kept as safety stock, about 95%
+
+    private final Inventory inventory;
+
+    private final Map<Item, DaySeries> sold = new HashMap<>();       //Sold as the item itself
+    private final Map<Item, DaySeries> usedIn = new HashMap<>();     //Used as a part of a composite that sold
+    private final Map<String, DaySeries> skuSold = new HashMap<>();   //"PLATFORM:sku", registered or not
+
+    //"PLATFORM:orderId" -> day it was counted on, so a cancel takes out what was added. Dropped after DAYS
+    private final Map<String, Long> counted = new HashMap<>();
+    private long prunedOn = Long.MIN_VALUE;
+
+    SalesVelocity(Inventory inventory) {
+        this.inventory = inventory;
+    }
+
+    //-------------------------------<Updating>-------------------------------
+    //Starts over from the whole order history, after orders are loaded
+    public synchronized void rebuild(Map<PlatformType, Map<String, BaseSeller.Order>> allOrders) {
+        sold.clear();
+        usedIn.clear();
+        skuSold.clear();
+        counted.clear();
+        for (Map.Entry<PlatformType, Map<String, BaseSeller.Order>> platformOrders : allOrders.entrySet()) {
+            for (BaseSeller.Order order : platformOrders.getValue().values()) {
+                orderAdded(platformOrders.getKey(), order);
+            }
+        }
+    }
+
+    //A confirmed or shipped order seen for the first time counts as sold
+    synchronized void orderAdded(PlatformType platform, BaseSeller.Order order) {
+        if (order.getStatus() == BaseSeller.OrderStatus.CANCELLED) return;
+        String key = platform.name() + ":" + order.getOrderId();
+        if (counted.containsKey(key)) return;
+
+        long today = today();
+        long day = dayOf(order, today);
+        if (day <= today - DAYS) return; //Outside every window
+        counted.put(key, day);
+        add(platform, order, day, 1);
+        prune(today);
+    }
+
+    //Only a cancel changes what was sold, shipping an order that was counted as confirmed does not
+    synchronized void orderChanged(PlatformType platform, BaseSeller.Order oldOrder, BaseSeller.Order newOrder) {
+        if (newOrder.getStatus() != BaseSeller.OrderStatus.CANCELLED) {
+            orderAdded(platform, newOrder); //Counted already unless it was seen cancelled first
+            return;
+        }
+        Long day = counted.remove(platform.name() + ":" + newOrder.getOrderId());
+        if (day != null) {
+            add(platform, oldOrder, day, -1);
+        }
+    }
+
+    private void add(PlatformType platform, BaseSeller.Order order, long day, int sign) {
+        for (BaseSeller.OrderPacket op : order.getItems()) {
+            int quantity = sign * op.quantity();
+            skuSold.computeIfAbsent(platform.name() + ":" + op.sku(), k -> new DaySeries()).add(day, quantity);
+
+            Item item = inventory.getItemByPlatformAndSKU(platform, op.sku());
+            if (item == null) continue;
+            sold.computeIfAbsent(item, k -> new DaySeries()).add(day, quantity);
+            if (!item.isComposite()) continue;
+
+            FlatBom bom = inventory.getFlatBom(item);
+            for (int i = 0; i < bom.size(); i++) {
+                usedIn.computeIfAbsent(bom.partAt(i), k -> new DaySeries()).add(day, quantity * bom.quantityAt(i));
+            }
+        }
+    }
+
+    //Once a day, orders too old for any window can no longer be cancelled out of one
+    private void prune(long today) {
+        if (prunedOn == today) return;
+        prunedOn = today;
+        counted.values().removeIf(day -> day <= today - DAYS);
+    }
+
+    private static long dayOf(BaseSeller.Order order, long today) {
+        if (order.getLastUpdated() == null) return today;
+        return order.getLastUpdated().withZoneSameInstant(ZoneOffset.UTC).toLocalDate().toEpochDay();
+    }
+
+    static long today() {
+        return LocalDate.now(ZoneOffset.UTC).toEpochDay();
+    }
+    //-------------------------------</Updating>-------------------------------
+
+
+    //-------------------------------<Velocity>-------------------------------
+    //Units per day sold as the item itself over the last days (7, 30 or 90, at most 90)
+    public synchronized double getVelocity(Item item, int days) {
+        return perDay(sold.get(item), days);
+    }
+
+    //Units per day used as a part in composites that sold
+    public synchronized double getComponentVelocity(Item item, int days) {
+        return perDay(usedIn.get(item), days);
+    }
+
+    //Both of the above, the demand the item's stock has to cover
+    public synchronized double getDemandVelocity(Item item, int days) {
+        return perDay(sold.get(item), days) + perDay(usedIn.get(item), days);
+    }
+
+    //Units per day sold under one sku of a platform, also for skus not linked to an item
+    public synchronized double getSkuVelocity(PlatformType platform, String sku, int days) {
+        return perDay(skuSold.get(platform.name() + ":" + sku), days);
+    }
+
+    private static double perDay(DaySeries series, int days) {
+        days = Math.max(1, Math.min(days, DAYS));
+        return series == null ? 0 : (double) series.sum(today(), days) / days;
+    }
+    //-------------------------------</Velocity>-------------------------------
+
+
+    //-------------------------------<Reorder points>-------------------------------
+    //Stock to reorder at so what sells during the lead time is covered: average demand over the lead time
+    //plus safety stock for the day to day swings of the last 30 days
+    public synchronized int suggestReorderPoint(Item item, int leadTimeDays) {
+        long today = today();
+        DaySeries direct = sold.get(item);
+        DaySeries parts = usedIn.get(item);
+        if (direct == null && parts == null) return 0;
+
+        double sum = 0;
+        double sumOfSquares = 0;
+        for (long day = today - REORDER_WINDOW + 1; day <= today; day++) {
+            int demand = (direct == null ? 0 : direct.get(day)) + (parts == null ? 0 : parts.get(day));
+            sum += demand;
+            sumOfSquares += (double) demand * demand;
+        }
+        double mean = sum / REORDER_WINDOW;
+        double deviation = Math.sqrt(Math.max(0, sumOfSquares / REORDER_WINDOW - mean * mean));
+        return (int) Math.ceil(mean * leadTimeDays + SAFETY_FACTOR * deviation * Math.sqrt(leadTimeDays));
+    }
+
+    //Item -> suggested low stock trigger, only for items that sold or were used recently and whose trigger differs
+    public synchronized Map<Item, Integer> getReorderSuggestions(int leadTimeDays) {
+        Set<Item> moving = new LinkedHashSet<>(sold.keySet());
+        moving.addAll(usedIn.keySet());
+        Map<Item, Integer> suggestions = new LinkedHashMap<>();
+        for (Item item : moving) {
+            if (!inventory.hasItem(item)) continue;
+            int suggested = suggestReorderPoint(item, leadTimeDays);
+            if (suggested != item.getLowStockTrigger()) suggestions.put(item, suggested);
+        }
+        return suggestions;
+    }
+    //-------------------------------</Reorder points>-------------------------------
+
+
+    //Units per day for the last DAYS days, a ring indexed by day. Days that rolled out read as 0
+    private static final class DaySeries {
+        private final int[] units = new int[DAYS];
+        private long lastDay = Long.MIN_VALUE; //Newest day written, every day after it is 0
+
+        void add(long day, int quantity) {
+            if (lastDay != Long.MIN_VALUE && day <= lastDay - DAYS) return; //Rolled out already
+            if (day > lastDay) {
+                long from = lastDay == Long.MIN_VALUE ? day - DAYS + 1 : Math.max(lastDay + 1, day - DAYS + 1);
+                for (long d = from; d <= day; d++) units[Math.floorMod(d, DAYS)] = 0;
+                lastDay = day;
+            }
+            units[Math.floorMod(day, DAYS)] += quantity;
+        }
+
+        int get(long day) {
+            if (day > lastDay || day <= lastDay - DAYS) return 0;
+            return units[Math.floorMod(day, DAYS)];
+        }
+
+        long sum(long today, int days) {
+            long total = 0;
+            for (long day = today - days + 1; day <= today; day++) total += get(day);
+            return total;
+        }
+    }
+}
@@ -29,11 +29,13 @@ public class FileManager {
     private final LogFileManager logFileManager;
     private final OrderFileManager orderFileManager;
     private final UserConfigManager userConfigManager;
+    private final PlatformManager platformManager;
 
     boolean firstOpen;
 
     public FileManager(Inventory inventory, LogManager logManager, PlatformManager platformManager, MainWindow mainWindow) {
         createDirectory();
+        this.platformManager = platformManager;
 
         inventoryFileManager = new InventoryFileManager(inventory, "inventory");
         logFileManager = new LogFileManager(logManager,inventory, "logs");
@@ -47,6 +49,7 @@ public class FileManager {
 
         UserConfigManager.UserConfig uc = userConfigManager.getUserConfig();
         firstOpen = uc.firstOpen;
+        logFileManager.setRetention(uc.getLogRetention());
 
         if (!loadAll(firstOpen)) {
             System.out.println("[FileManager] Load failed, attempting restore from backup...");
@@ -102,6 +105,11 @@ public class FileManager {
             System.out.println("[FileManager] ERROR: Failed to build item-to-log links: " + e.getMessage());
             allSuccess = false;
         }
+        try {
+            platformManager.rebuildSalesVelocity(); //Needs both the items and the orders
+        } catch (Exception e) {
+            System.out.println("[FileManager] ERROR: Failed to build sales velocity: " + e.getMessage());
+        }
 
         if(!firstOpen) {
             for (AbstractFileManager.LoadResult lr : loadResults) {
@@ -195,6 +203,15 @@ public class FileManager {
             for (String dir : DATA_DIRS) {
                 Path source = backup.resolve(dir);
                 if (Files.exists(source)) {
+                    //Segments and the journal are appended to, newer ones than the backup has would replay on top of it.
+                    //A backup that has them brings its own
+                    Path segments = Path.of("data/" + dir, LogFileManager.SEGMENT_DIRNAME);
+                    if (dir.equals("logs") && Files.exists(segments)) {
+                        deleteDirectory(segments);
+                    }
+                    if (dir.equals("inventory")) {
+                        Files.deleteIfExists(Path.of("data/" + dir, InventoryFileManager.JOURNAL_FILENAME));
+                    }
                     copyDirectory(source.toString(), "data/" + dir);
                 }
             }
@@ -275,6 +292,9 @@ public class FileManager {
             JOptionPane.showMessageDialog(null, message, "File Error", JOptionPane.ERROR_MESSAGE);
         }
     }
+    public LogArchive getLogArchive() {
+        return logFileManager.getArchive();
+    }
     public UserConfigManager.UserConfig getUserConfig() {
         if(userConfigManager == null) return UserConfigManager.defaultConfig;
         return userConfigManager.getUserConfig();
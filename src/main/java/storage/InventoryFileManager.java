@@ -1,5 +1,6 @@
 package storage;
 
+import com.google.gson.JsonObject;
 import com.google.gson.reflect.TypeToken;
 import core.*;
 
@@ -10,22 +11,34 @@ import java.nio.file.*;
 import java.util.*;
 
 
-///Two files:
+///Three files:
 /// items.json stores the serial number of the item and the item information
 /// quantities.json stores the serial and the quantity
+/// journal.log stores every change made since those two were written, see InventoryJournalFile
+///Loading reads the first two as a snapshot and replays the journal on top.
+///Saving only syncs the journal, the snapshot is rewritten once the journal grows past COMPACT_AFTER_BYTES
+///or after a journal write failed
 public class InventoryFileManager extends AbstractFileManager{
 
     public static final String ITEMS_FILENAME = "items.json";
     public static final String QUANTITIES_FILENAME = "quantities.json";
+    public static final String JOURNAL_FILENAME = "journal.log";
+
+    private static final long COMPACT_AFTER_BYTES = 4L * 1024 * 1024;
 
     public final String itemDetailsFilePath = dataDir + File.separator + ITEMS_FILENAME;
     public final String itemQuantitiesFilePath = dataDir + File.separator + QUANTITIES_FILENAME;
+    public final String journalFilePath = dataDir + File.separator + JOURNAL_FILENAME;
 
     Inventory inventory;
 
+    private final InventoryJournalFile journal;
+    private volatile boolean journaling; //Only once a load succeeded, until then a save writes the full snapshot
+
     public InventoryFileManager(Inventory inventory, String dataDirName){
         super(dataDirName);
         this.inventory = inventory;
+        this.journal = new InventoryJournalFile(inventory, getJournalFilePath());
     }
     public Path getItemDetailsFilePath() {
         return Path.of(itemDetailsFilePath);
@@ -35,11 +48,19 @@ public class InventoryFileManager extends AbstractFileManager{
         return Path.of(itemQuantitiesFilePath);
     }
 
+    public Path getJournalFilePath() {
+        return Path.of(journalFilePath);
+    }
+
     public LoadResult load(boolean firstOpen) {
         loading = true;
+        journaling = false;
+        inventory.setJournal(null);
         Path itemsPath = getItemDetailsFilePath();
         Path quantitiesPath = getItemQuantitiesFilePath();
         try {
+            journal.reopen();
+
             //Get all items
             Map<String, Item> items;
             try (FileReader itemsReader = new FileReader(itemsPath.toFile())) {
@@ -66,6 +87,7 @@ public class InventoryFileManager extends AbstractFileManager{
                 }
                 inventory.convertComposedSerialToItem();
             }
+            journal.replay();
         } catch (Exception e) {
             if(firstOpen) {
                 System.out.println("ERROR: " + e.getMessage() + Arrays.toString(e.getStackTrace()));
@@ -76,37 +98,66 @@ public class InventoryFileManager extends AbstractFileManager{
         }finally {
             loading = false;
         }
+        inventory.setJournal(journal);
+        journaling = true;
         System.out.println("Loaded inventory from: " + itemsPath);
         return new LoadResult(true, null);
     }
 
 
-    //Saves the whole inventory
+    //Syncs the journal. The whole inventory is only written when the journal is due for compaction
     @Override
     public void save() {
         if(loading) return;
-        Path itemDetailsFile = getItemDetailsFilePath();
-        Path itemQuantitiesFile = getItemQuantitiesFilePath();
-
         try {
-            //Write item details
-            try (FileWriter writer = new FileWriter(itemDetailsFile.toFile())) {
-                gson.toJson(inventory.SerialToItemMap, writer);
+            boolean snapshotMissing = !Files.exists(getItemDetailsFilePath()) || !Files.exists(getItemQuantitiesFilePath());
+            if (!journaling || snapshotMissing || journal.needsCompaction() || journal.size() >= COMPACT_AFTER_BYTES) {
+                journal.compact(this::writeSnapshot);
+            } else {
+                try {
+                    journal.flush();
+                } catch (IOException e) {
+                    //The failed changes are only in memory now, write the whole inventory instead
+                    System.out.println("ERROR: Could not write inventory journal, writing a full snapshot. " + e.getMessage());
+                    journal.compact(this::writeSnapshot);
+                }
             }
+        } catch (Exception e) {
+            showError("ERROR: Could not save inventory. "+ e.getMessage(),false);
+        }
+    }
 
-            //Write item quantities
-            try (FileWriter writer = new FileWriter(itemQuantitiesFile.toFile())) {
+    //Written next to the old files then moved over them, so a crash leaves either the old or the new file
+    private void writeSnapshot() throws IOException {
+        Path itemDetailsFile = getItemDetailsFilePath();
+        Path itemQuantitiesFile = getItemQuantitiesFilePath();
+        Path itemDetailsTemp = Path.of(itemDetailsFilePath + ".tmp");
+        Path itemQuantitiesTemp = Path.of(itemQuantitiesFilePath + ".tmp");
+
+        //Items and quantities come from one snapshot so the two files agree with each other
+        InventorySnapshot snapshot = inventory.getSnapshot();
+
+        //Write item details. Items drop their serialized components after loading so they are rebuilt here
+        try (FileWriter writer = new FileWriter(itemDetailsTemp.toFile())) {
+            JsonObject itemDetails = new JsonObject();
+            for (Item item : snapshot.getItems()) {
+                JsonObject itemJson = gson.toJsonTree(item).getAsJsonObject();
+                itemJson.add("composedOfSerialized", gson.toJsonTree(item.getComposedOfSerialized()));
+                itemDetails.add(item.getSerial(), itemJson);
+            }
+            gson.toJson(itemDetails, writer);
+        }
 
-                HashMap<String, Integer> serialToQuantity = new HashMap<>();
-                for (Map.Entry<Item, Integer> entry : inventory.MainInventory.entrySet()) {
-                    serialToQuantity.put(entry.getKey().getSerial(), entry.getValue());
-                }
+        //Write item quantities
+        try (FileWriter writer = new FileWriter(itemQuantitiesTemp.toFile())) {
 
-                gson.toJson(serialToQuantity, writer);
-            }
+            HashMap<String, Integer> serialToQuantity = new HashMap<>();
+            snapshot.forEach((item, quantity, reserved) -> serialToQuantity.put(item.getSerial(), quantity));
 
-        } catch (Exception e) {
-            showError("ERROR: Could not save inventory. "+ e.getMessage(),false);
+            gson.toJson(serialToQuantity, writer);
         }
+
+        Files.move(itemDetailsTemp, itemDetailsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(itemQuantitiesTemp, itemQuantitiesFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
 }
@@ -0,0 +1,365 @@
+package storage;
+
+import com.google.gson.*;
+import core.Inventory;
+import core.InventoryJournal;
+import core.Item;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+///Append only journal of inventory changes, one JSON record per line:
+/// {"type":"item","item":{...}}         full details of a created or edited item
+/// {"type":"quantity","serial":"..","quantity":5}
+/// {"type":"removed","serial":".."}
+///Records hold the state after the change, not a delta, so replaying one twice is harmless.
+///Changes are queued and a writer thread appends everything queued in one write and one fsync (group commit).
+///Repeated changes to the same item while a batch is queued collapse into one record, written with the state at write time.
+///The snapshot (items.json and quantities.json) is only rewritten by compact(), which empties the journal.
+///A batch that fails to write is only in memory after that, so the next save has to compact, see needsCompaction()
+public class InventoryJournalFile implements InventoryJournal {
+
+    private enum RecordType { ITEM, QUANTITY, REMOVED }
+    private record Pending(RecordType type, Item item) {}
+
+    private final Inventory inventory;
+    private final Path path;
+    private final Gson gson = new GsonBuilder().excludeFieldsWithoutExposeAnnotation().create(); //One record per line
+
+    //Queued records keyed by "i:serial" (item or removed) and "q:serial". A key keeps its first place in the queue
+    private final Object queueLock = new Object();
+    private LinkedHashMap<String, Pending> pending = new LinkedHashMap<>();
+    private long queued = 0;  //Records queued so far, guarded by queueLock
+    private long written = 0; //Records written and synced so far, guarded by queueLock
+    private IOException failure; //Last write error, reported by the next flush
+    private volatile boolean lostWrites; //A batch failed since the last compaction
+
+    private final ReentrantLock fileLock = new ReentrantLock(); //Held while a batch is written or the journal compacted
+    private FileChannel channel;
+    private volatile long size;
+
+    public InventoryJournalFile(Inventory inventory, Path path) {
+        this.inventory = inventory;
+        this.path = path;
+
+        Thread writer = new Thread(this::writeLoop, "inventory-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    //-------------------------------<Recording>-------------------------------
+    @Override
+    public void quantityChanged(Item item) {
+        enqueue("q:" + item.getSerial(), new Pending(RecordType.QUANTITY, item));
+    }
+
+    @Override
+    public void itemChanged(Item item) {
+        enqueue("i:" + item.getSerial(), new Pending(RecordType.ITEM, item));
+    }
+
+    @Override
+    public void itemRemoved(Item item) {
+        enqueue("i:" + item.getSerial(), new Pending(RecordType.REMOVED, item));
+    }
+
+    private void enqueue(String key, Pending record) {
+        synchronized (queueLock) {
+            pending.put(key, record);
+            queued++;
+            queueLock.notifyAll();
+        }
+    }
+    //-------------------------------</Recording>-------------------------------
+
+
+    //-------------------------------<Writing>-------------------------------
+    private void writeLoop() {
+        while (true) {
+            LinkedHashMap<String, Pending> batch;
+            long batchEnd;
+            synchronized (queueLock) {
+                while (pending.isEmpty()) {
+                    try {
+                        queueLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                batch = pending;
+                pending = new LinkedHashMap<>();
+                batchEnd = queued;
+            }
+
+            IOException error = null;
+            fileLock.lock();
+            try {
+                writeBatch(batch.values());
+            } catch (IOException e) {
+                System.out.println("ERROR: Could not write inventory journal. " + e.getMessage());
+                error = e;
+            } finally {
+                fileLock.unlock();
+            }
+
+            synchronized (queueLock) {
+                if (error != null) {
+                    failure = error;
+                    lostWrites = true;
+                }
+                written = batchEnd;
+                queueLock.notifyAll();
+            }
+        }
+    }
+
+    //Caller holds fileLock
+    private void writeBatch(Collection<Pending> batch) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Pending p : batch) {
+            JsonObject record = toRecord(p);
+            if (record != null) sb.append(gson.toJson(record)).append('\n');
+        }
+        if (sb.isEmpty()) return;
+
+        ByteBuffer bytes = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        FileChannel ch = openChannel();
+        long before = ch.size();
+        try {
+            while (bytes.hasRemaining()) {
+                ch.write(bytes);
+            }
+            ch.force(false);
+        } catch (IOException e) {
+            dropTornWrite(ch, before);
+            throw e;
+        }
+        size = ch.size();
+    }
+
+    //Cuts a half written batch off so the next record does not start on its torn line. Caller holds fileLock
+    private void dropTornWrite(FileChannel ch, long before) {
+        try {
+            ch.truncate(before);
+        } catch (IOException e) {
+            System.out.println("ERROR: Could not truncate inventory journal. " + e.getMessage()); //Replay skips the torn line
+        }
+        try {
+            ch.close();
+        } catch (IOException ignored) {
+        }
+        channel = null;
+    }
+
+    //Read when written so a queued record always carries the latest state
+    private JsonObject toRecord(Pending p) {
+        Item item = p.item();
+        JsonObject record = new JsonObject();
+        switch (p.type()) {
+            case ITEM -> {
+                if (!inventory.hasItem(item)) return null; //Removed since, its removal is queued under the same key
+                JsonObject itemJson = gson.toJsonTree(item).getAsJsonObject();
+                itemJson.add("composedOfSerialized", gson.toJsonTree(item.getComposedOfSerialized()));
+                record.addProperty("type", "item");
+                record.add("item", itemJson);
+            }
+            case QUANTITY -> {
+                if (!inventory.hasItem(item)) return null;
+                record.addProperty("type", "quantity");
+                record.addProperty("serial", item.getSerial());
+                record.addProperty("quantity", inventory.getQuantity(item));
+            }
+            case REMOVED -> {
+                record.addProperty("type", "removed");
+                record.addProperty("serial", item.getSerial());
+            }
+        }
+        return record;
+    }
+
+    private FileChannel openChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return channel;
+    }
+
+    //Blocks until everything queued before the call is on disk
+    public void flush() throws IOException {
+        synchronized (queueLock) {
+            if (!awaitWritten()) return;
+            if (failure != null) {
+                IOException e = failure;
+                failure = null;
+                throw e;
+            }
+        }
+    }
+
+    //Caller holds queueLock. False when interrupted
+    private boolean awaitWritten() {
+        long target = queued;
+        while (written < target) {
+            try {
+                queueLock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    //True when a batch failed to write since the last compaction, the journal alone is missing those changes
+    public boolean needsCompaction() {
+        return lostWrites;
+    }
+
+    //Called before loading. A restored backup replaces the file, so it is opened again on the next write.
+    //Earlier write errors are not thrown, the inventory is read back from disk
+    public void reopen() throws IOException {
+        synchronized (queueLock) {
+            awaitWritten();
+            failure = null;
+        }
+        fileLock.lock();
+        try {
+            if (channel != null) channel.close();
+            channel = null;
+            size = Files.exists(path) ? Files.size(path) : 0;
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    //Writes a new snapshot and empties the journal. Changes made meanwhile stay queued and are written after it.
+    //If the snapshot fails the journal is kept, so the old snapshot plus the journal is still complete.
+    //Earlier write errors are not thrown, the snapshot holds the changes that failed
+    public void compact(SnapshotWriter snapshot) throws IOException {
+        synchronized (queueLock) {
+            awaitWritten();
+        }
+        fileLock.lock();
+        try {
+            snapshot.write();
+            lostWrites = false; //Batches fail under fileLock, so every failed change is in the snapshot
+            synchronized (queueLock) {
+                failure = null;
+            }
+            FileChannel ch = openChannel();
+            ch.truncate(0);
+            ch.force(true);
+            size = 0;
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    @FunctionalInterface
+    public interface SnapshotWriter {
+        void write() throws IOException;
+    }
+    //-------------------------------</Writing>-------------------------------
+
+
+    //-------------------------------<Replay>-------------------------------
+    //Applies every record on top of the loaded snapshot, in order. The inventory must not be journaling to this yet.
+    //Recipes are resolved at the end since a queued record can name a component whose record comes later
+    public int replay() throws IOException {
+        if (!Files.exists(path)) return 0;
+
+        Map<String, Map<String, Integer>> recipes = new LinkedHashMap<>();
+        int applied = 0;
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) continue;
+                JsonObject record;
+                try {
+                    record = JsonParser.parseString(line).getAsJsonObject();
+                } catch (JsonParseException | IllegalStateException e) {
+                    //A crash mid write leaves a torn last line
+                    System.out.println("[InventoryJournal] WARNING: Skipping unreadable record on line " + lineNumber);
+                    continue;
+                }
+                if (apply(record, recipes)) applied++;
+            }
+        }
+
+        for (Map.Entry<String, Map<String, Integer>> e : recipes.entrySet()) {
+            Item item = inventory.getItemBySerial(e.getKey());
+            if (item == null) continue; //Removed later in the journal
+
+            Map<Item, Integer> composedOf = new HashMap<>();
+            for (Map.Entry<String, Integer> component : e.getValue().entrySet()) {
+                Item part = inventory.getItemBySerial(component.getKey());
+                if (part == null) {
+                    System.out.println("[InventoryJournal] WARNING: " + item.getName() + " (" + item.getSerial() + ") is composed of missing item " + component.getKey() + ". Skipping it.");
+                    continue;
+                }
+                composedOf.put(part, component.getValue());
+            }
+            item.replaceComposedOf(composedOf);
+        }
+        System.out.println("[InventoryJournal] Replayed " + applied + " records from: " + path);
+        return applied;
+    }
+
+    private boolean apply(JsonObject record, Map<String, Map<String, Integer>> recipes) {
+        String type = record.has("type") ? record.get("type").getAsString() : "";
+        switch (type) {
+            case "item" -> {
+                Item saved = gson.fromJson(record.get("item"), Item.class);
+                if (saved == null || saved.getSerial() == null) return false;
+
+                Item existing = inventory.getItemBySerial(saved.getSerial());
+                if (existing == null) {
+                    saved.checkMissingIcon();
+                    inventory.createItemFromSave(saved, 0);
+                } else {
+                    existing.setName(saved.getName());
+                    existing.setLowStockTrigger(saved.getLowStockTrigger());
+                    existing.setAmazonSellerSKU(saved.getAmazonSellerSKU());
+                    existing.setEbaySellerSKU(saved.getEbaySellerSKU());
+                    existing.setWalmartSellerSKU(saved.getWalmartSellerSKU());
+                    existing.setImagePath(saved.getImagePath());
+                    existing.checkMissingIcon();
+                }
+                Map<String, Integer> recipe = saved.getComposedOfSerialized();
+                recipes.put(saved.getSerial(), recipe != null ? recipe : new HashMap<>());
+                return true;
+            }
+            case "quantity" -> {
+                Item item = inventory.getItemBySerial(record.get("serial").getAsString());
+                if (item == null) return false;
+                inventory.setQuantity(item, record.get("quantity").getAsInt());
+                return true;
+            }
+            case "removed" -> {
+                String serial = record.get("serial").getAsString();
+                recipes.remove(serial);
+                Item item = inventory.getItemBySerial(serial);
+                if (item == null) return false;
+                inventory.removeItemRecord(item);
+                return true;
+            }
+            default -> {
+                System.out.println("[InventoryJournal] WARNING: Unknown record type: " + type);
+                return false;
+            }
+        }
+    }
+    //-------------------------------</Replay>-------------------------------
+}
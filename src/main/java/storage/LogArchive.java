@@ -0,0 +1,130 @@
+package storage;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import core.Log;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+///Logs past their retention, see LogRetention. They are not loaded on start, only read when searched.
+///Every archive pass writes one gzip file of JSON lines named after the oldest and newest time in it:
+/// archive-<oldest epoch millis>-<newest epoch millis>.jsonl.gz
+///so a search for a time range skips the files outside it without opening them.
+///A file is written next to its final name and moved there, it is never changed after that.
+///Logs are removed from the live logs only once their file is in place. A crash in between archives them twice,
+///a search returns each log id once
+public class LogArchive {
+
+    private static final Pattern ARCHIVE_NAME = Pattern.compile("archive-(-?\\d+)-(-?\\d+)\\.jsonl\\.gz");
+
+    private final Path dir;
+    private final Gson gson = new GsonBuilder().excludeFieldsWithoutExposeAnnotation().create(); //One log per line
+
+    private record ArchiveFile(Path path, long oldest, long newest) {}
+
+    public LogArchive(Path dir) {
+        this.dir = dir;
+    }
+
+    public synchronized void append(List<Log> logs) throws IOException {
+        if (logs.isEmpty()) return;
+        long oldest = Long.MAX_VALUE;
+        long newest = Long.MIN_VALUE;
+        for (Log log : logs) {
+            oldest = Math.min(oldest, log.getCreatedAt());
+            newest = Math.max(newest, log.getCreatedAt());
+        }
+
+        Files.createDirectories(dir);
+        Path target = dir.resolve("archive-" + oldest + "-" + newest + ".jsonl.gz");
+        for (int copy = 1; Files.exists(target); copy++) { //Same range archived again after a crash
+            target = dir.resolve("archive-" + oldest + "-" + (newest + copy) + ".jsonl.gz");
+        }
+        Path temp = dir.resolve(target.getFileName() + ".tmp");
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(temp)), StandardCharsets.UTF_8))) {
+            for (Log log : logs) {
+                out.write(gson.toJson(log));
+                out.write('\n');
+            }
+        }
+        try (FileChannel ch = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //Archived logs matching the filter, newest first, at most limit of them
+    public List<Log> search(Predicate<Log> filter, int limit) {
+        return search(Long.MIN_VALUE, Long.MAX_VALUE, filter, limit);
+    }
+
+    //Archived logs created from..to (epoch millis, inclusive) matching the filter, newest first, at most limit of them.
+    //Files outside the range are not opened and files are read newest first until enough matched
+    public synchronized List<Log> search(long from, long to, Predicate<Log> filter, int limit) {
+        Map<Integer, Log> found = new HashMap<>();
+        for (ArchiveFile file : files()) {
+            if (file.newest() < from || file.oldest() > to) continue;
+            if (found.size() >= limit && file.newest() < oldestOf(found.values(), limit)) break;
+            readFile(file.path(), log -> {
+                if (log.getCreatedAt() >= from && log.getCreatedAt() <= to && filter.test(log)) {
+                    found.putIfAbsent(log.getLogID(), log);
+                }
+            });
+        }
+        List<Log> result = new ArrayList<>(found.values());
+        result.sort(Comparator.comparingInt(Log::getLogID).reversed());
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    //Creation time of the limit-th newest log
+    private static long oldestOf(Collection<Log> logs, int limit) {
+        PriorityQueue<Long> newest = new PriorityQueue<>();
+        for (Log log : logs) {
+            newest.add(log.getCreatedAt());
+            if (newest.size() > limit) newest.poll();
+        }
+        return newest.isEmpty() ? Long.MIN_VALUE : newest.peek();
+    }
+
+    private void readFile(Path path, Consumer<Log> consumer) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(path)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                Log log = gson.fromJson(line, Log.class);
+                if (log != null) consumer.accept(log);
+            }
+        } catch (IOException | JsonParseException e) {
+            System.out.println("[LogArchive] ERROR: Could not read " + path.getFileName() + ". " + e.getMessage());
+        }
+    }
+
+    //Newest first
+    private List<ArchiveFile> files() {
+        List<ArchiveFile> files = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return files;
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(dir, "archive-*.jsonl.gz")) {
+            for (Path path : paths) {
+                Matcher m = ARCHIVE_NAME.matcher(path.getFileName().toString());
+                if (m.matches()) files.add(new ArchiveFile(path, Long.parseLong(m.group(1)), Long.parseLong(m.group(2))));
+            }
+        } catch (IOException e) {
+            System.out.println("[LogArchive] ERROR: Could not list archived logs. " + e.getMessage());
+        }
+        files.sort(Comparator.comparingLong(ArchiveFile::newest).reversed());
+        return files;
+    }
+}
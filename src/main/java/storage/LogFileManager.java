@@ -10,12 +10,25 @@ import java.lang.reflect.Type;
 import java.nio.file.*;
 import java.io.IOException;
 import java.util.*;
-
+import java.util.concurrent.TimeUnit;
+
+///Logs are kept in segments/ as append only files, see LogSegmentStore.
+///Loading replays the segments. Saving only syncs what changed since the last save and starts a compaction in the
+///background once enough old segments pile up.
+///Logs past their retention are moved to archive/ by the first save after loading and then once a day, see LogArchive.
+///logs.json and itemLogLink.json are the old format, written in full on every save. They are read once if there are
+///no segments yet and removed after the first save. Logs link to their item by serial so no link file is kept
 public class LogFileManager extends AbstractFileManager{
 
     public static final String LOG_FILENAME = "logs.json";
+    public static final String SEGMENT_DIRNAME = "segments";
+    public static final String ARCHIVE_DIRNAME = "archive";
+
+    private static final long ARCHIVE_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
 
     public final String logFilePath = dataDir + File.separator + LOG_FILENAME;
+    public final String segmentDirPath = dataDir + File.separator + SEGMENT_DIRNAME;
+    public final String archiveDirPath = dataDir + File.separator + ARCHIVE_DIRNAME;
 
     public static final String ITEM_LOG_LINK_FILENAME = "itemLogLink.json";
 
@@ -24,27 +37,85 @@ public class LogFileManager extends AbstractFileManager{
     private final LogManager logManager;
     private final Inventory inventory;
 
+    private final LogSegmentStore store;
+    private volatile boolean journaling; //Only once a load succeeded from segments, until then a save writes every log
+
+    private final LogArchive archive;
+    private volatile LogRetention retention = LogRetention.defaults();
+    private long lastArchived = 0; //Epoch millis of the last archive pass, 0 until the first save
+
     private boolean loading = false;
 
     public LogFileManager(LogManager logManager, Inventory inventory, String dataDirName){
         super(dataDirName);
         this.inventory = inventory;
         this.logManager = logManager;
+        this.store = new LogSegmentStore(getSegmentDirPath());
+        this.archive = new LogArchive(getArchiveDirPath());
     }
     public Path getLogFilePath() {
         return Path.of(logFilePath);
     }
+    public Path getSegmentDirPath() {
+        return Path.of(segmentDirPath);
+    }
+    public Path getArchiveDirPath() {
+        return Path.of(archiveDirPath);
+    }
     public Path getItemLogLinkFilePath() {
         return Path.of(itemLogLinkFilePath);
     }
+    public LogArchive getArchive() {
+        return archive;
+    }
+    public void setRetention(LogRetention retention) {
+        this.retention = retention;
+    }
     @Override
     public LoadResult load(boolean firstOpen){
         loading = true;
+        journaling = false;
+        lastArchived = 0;
+        logManager.setJournal(null);
+
+        try {
+            store.reopen();
+            if (store.hasSegments()) {
+                LogSegmentStore.Replayed replayed = store.replay();
+                for (Log l : replayed.logs().values()) {
+                    if (logManager.logById.get(l.getLogID()) != null) {
+                        System.out.println("[LogFileManager] Duplicate log found with ID: " + l.getLogID());
+                        continue; //Log already exists
+                    }
+                    logManager.addLogToCollectionsWithoutNotify(l);
+                }
+                LogManager.nextlogID = Math.max(LogManager.nextlogID, replayed.maxLogId() + 1);
+                journaling = true;
+                System.out.println("[LogFileManager] Loaded " + replayed.logs().size() + " logs from: " + getSegmentDirPath());
+            } else {
+                LoadResult legacy = loadLegacy(firstOpen);
+                if (!legacy.success()) return legacy;
+            }
+        } catch (Exception e) {
+            System.out.println(Arrays.toString(e.getStackTrace()));
+            showError("[LogFileManager]ERROR: Could not load logs. " + e.getMessage() + "\n " +
+                    "Load a working backup",firstOpen);
+            return new LoadResult(false, e);
+        } finally {
+            loading = false;
+        }
+        logManager.setJournal(store);
+        logManager.notifyListeners();
+        return new LoadResult(true, null);
+    }
 
+    //logs.json from before segments, the next save writes them all into a segment
+    private LoadResult loadLegacy(boolean firstOpen) {
         Path logPath = getLogFilePath();
 
         //Get all logs
         Map<Integer,Log> logs;
+        int maxId = 0;
         try (FileReader itemsReader = new FileReader(logPath.toFile())) {
             Type logType = new TypeToken<Map<Integer,Log>>(){}.getType();
             logs = gson.fromJson(itemsReader, logType);
@@ -52,14 +123,15 @@ public class LogFileManager extends AbstractFileManager{
                 for(Map.Entry<Integer,Log> entry : logs.entrySet()){
                     Log l = entry.getValue();
                     Integer id = entry.getKey();
+                    maxId = Math.max(maxId, id);
                     if(logManager.logById.get(id) != null){
                         System.out.println("[LogFileManager] Duplicate log found with ID: "+ id);
                         continue; //Log already exists
                     }
                     logManager.addLogToCollectionsWithoutNotify(l);
-                    System.out.println("[LogFileManager] Loaded log ID: " + id);
-                    LogManager.nextlogID = Collections.max(logs.keySet()) + 1;
                 }
+                LogManager.nextlogID = Math.max(LogManager.nextlogID, maxId + 1);
+                System.out.println("[LogFileManager] Loaded " + logs.size() + " logs");
             }
         } catch (FileNotFoundException e) {
             System.out.println("[LogFileManager]ERROR:  Log file not found. Starting with no logs.");
@@ -69,121 +141,92 @@ public class LogFileManager extends AbstractFileManager{
             showError("[LogFileManager]ERROR: Could not load logs. " + e.getMessage() + "\n " +
                     "Load a working backup",firstOpen);
             return new LoadResult(false, e);
-        }finally {
-            loading = false;
         }
-        logManager.notifyListeners();
         System.out.println("[LogFileManager] Loading Logs from: " + logPath);
         return new LoadResult(true, null);
     }
 
     public void buildItemToLogLinks(){ //Only called after all logs and items are loaded
-        loading = true;
-        Path filePath = getItemLogLinkFilePath();
-
-        Map<String, List<Integer>> serialToLogIds;
-        try (FileReader linkReader = new FileReader(filePath.toFile())) {
-            Type linkType = new TypeToken<Map<String, List<Integer>>>(){}.getType();
-            serialToLogIds = gson.fromJson(linkReader, linkType);
-
-            if(serialToLogIds != null){
-                for(Map.Entry<String, List<Integer>> entry : serialToLogIds.entrySet()){
-                    String serial = entry.getKey();
-
-                    if (serial == null || serial.isEmpty()) {
-                        System.out.println("[LogFileManager] Skipping link entry with empty serial.");
-                        continue;
-                    }
-
-                    List<Integer> logIds = entry.getValue();
-
-                    Item item = inventory.getItemBySerial(serial);
-                    if(item == null){
-                        System.out.println("[LogFileManager] WARNING: Item with serial " + serial + " not found. Skipping link.");
-                        continue;
-                    }
-
-                    ArrayList<Log> logsForItem = new ArrayList<>();
-                    for(Integer logId : logIds){
-                        Log log = logManager.logById.get(logId);
-                        if(log == null){
-                            System.out.println("[LogFileManager] WARNING: Log with ID " + logId + " not found for item " + serial);
-                            continue;
-                        }
-                        logsForItem.add(log);
-                    }
-
-                    if(!logsForItem.isEmpty()){
-                        logManager.itemToLogs.put(item, logsForItem);
-                        System.out.println("[LogFileManager] Linked " + logsForItem.size() + " logs to item: " + serial);
-                    }
-                }
-            }
-        } catch (FileNotFoundException e) {
-            System.out.println("[LogFileManager]ERROR: Log to item link file not found.");
-            return;
-        } catch (Exception e) {
-            System.out.println(Arrays.toString(e.getStackTrace()));
-            System.out.println("[LogFileManager]ERROR: Could not load logs. " + e.getMessage() + "\n " +
-                    "Load a working backup");
-            return;
-        }finally {
-            loading = false;
+        //Logs loaded before their item are linked here, by the serial they carry
+        int linked = 0;
+        for (Log log : logManager.AllLogs) {
+            String serial = log.getSerial();
+            if (serial == null || serial.isEmpty()) continue;
+
+            Item item = inventory.getItemBySerial(serial);
+            if (item == null) continue; //Sku of an unregistered item or a deleted item
+            logManager.linkLogToItem(item, log);
+            linked++;
         }
 
+        inventory.resyncStockAlerts();
         logManager.notifyListeners();
-        System.out.println("[LogFileManager] Loading Logs Item Links from: " + filePath);
+        System.out.println("[LogFileManager] Linked " + linked + " logs to their items");
     }
 
+    //Syncs the changes since the last save. Every log is only written when there are no segments yet
+    //or after a write failed
     @Override
     public void save() {
         if (loading) return;
 
-        Path logFilePath = getLogFilePath();
         try {
-            String json = gson.toJson(logManager.logById);
-            Files.writeString(logFilePath, json, StandardOpenOption.CREATE,
-                    StandardOpenOption.TRUNCATE_EXISTING);
+            if (!journaling || !store.hasSegments() || store.needsRewrite()) {
+                rewriteAll();
+            } else {
+                try {
+                    store.flush();
+                } catch (IOException e) {
+                    //The failed changes are only in memory now, write every log instead
+                    System.out.println("[LogFileManager] ERROR: Could not append logs, writing them all. " + e.getMessage());
+                    rewriteAll();
+                }
+                store.compactInBackgroundIfDue();
+            }
         } catch (IOException e) {
-            System.out.println("[LogFileManager] ERROR: Could not save logs");
+            System.out.println("[LogFileManager] ERROR: Could not save logs. " + e.getMessage());
+            return;
         }
 
-        Path itemLogLinkPath = getItemLogLinkFilePath();
-
-        Map<String, List<Integer>> serialToLogIds= new HashMap<>();
-        for(Map.Entry<Item,ArrayList<Log>> e : logManager.itemToLogs.entrySet()){
-
-            Item item = e.getKey();
-            if(item == null){
-                System.out.println("[LogFileManager] ERROR: Could not save item to logs link. Item is null");
-                continue;
-            }
-            String serial = item.getSerial();
-            ArrayList<Log> logs = new ArrayList<>(e.getValue());
-            if(logs.isEmpty()){
-                continue;
-            }
+        long now = System.currentTimeMillis();
+        if (now - lastArchived >= ARCHIVE_INTERVAL_MILLIS) {
+            lastArchived = now;
+            archiveExpiredLogs(now);
+        }
+    }
 
-            //Convert to logIds
-            List<Integer> logIds = new ArrayList<>();
-            for(Log log : logs){
-                if(log != null){
-                    logIds.add(log.getLogID());
-                }
-            }
+    private void rewriteAll() throws IOException {
+        logManager.setJournal(store); //Not set yet if the load failed, changes from now on go after the rewrite
+        store.rewrite(logManager.AllLogs);
+        journaling = true;
+        //Replaced by the segment
+        Files.deleteIfExists(getLogFilePath());
+        Files.deleteIfExists(getItemLogLinkFilePath());
+    }
 
-            if(!logIds.isEmpty()){
-                serialToLogIds.put(serial, logIds);
-            }
+    //Moves the logs past their retention to the archive. Only logs too old for the shortest retention are looked at
+    public int archiveExpiredLogs(long now) {
+        LogRetention policy = retention;
+        long shortest = policy.shortestMillis();
+        if (shortest == Long.MAX_VALUE) return 0; //Everything is kept forever
 
-            serialToLogIds.put(serial,logIds);
+        List<Log> expired = new ArrayList<>();
+        for (Log log : logManager.getLogsBetween(Long.MIN_VALUE, now - shortest - 1)) {
+            if (policy.isExpired(log, now)) expired.add(log);
         }
+        if (expired.isEmpty()) return 0;
+
         try {
-            String json = gson.toJson(serialToLogIds);
-            Files.writeString(itemLogLinkPath, json, StandardOpenOption.CREATE,
-                    StandardOpenOption.TRUNCATE_EXISTING);
+            archive.append(expired);
         } catch (IOException e) {
-            System.out.println("[LogFileManager] ERROR: Could not save item-log links");
+            System.out.println("[LogFileManager] ERROR: Could not archive logs, they are kept. " + e.getMessage());
+            return 0;
+        }
+        for (Log log : expired) {
+            logManager.removeLog(log); //Saved as removed with the next save
         }
+        logManager.notifyListeners();
+        System.out.println("[LogFileManager] Archived " + expired.size() + " logs");
+        return expired.size();
     }
 }
@@ -0,0 +1,482 @@
+package storage;
+
+import com.google.gson.*;
+import core.Log;
+import core.LogJournal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+///Logs saved as append only segment files (logs-000001.jsonl, logs-000002.jsonl, ...), one JSON record per line:
+/// {"type":"log","log":{...}}                               a created log, with its state when written
+/// {"type":"update","id":7,"message":"..","suppressed":true}
+/// {"type":"removed","id":7}
+///Records hold the state after the change, so replaying one twice is harmless.
+///Changes are queued and a writer thread appends everything queued in one write and one fsync (group commit).
+///Repeated changes to the same log while a batch is queued collapse into one record.
+///The newest segment takes the appends and a new one is started past SEGMENT_BYTES.
+///Once COMPACT_AFTER_SEGMENTS older segments pile up they are merged in the background into one segment holding
+///only the logs still there, so a save costs the new changes and never the whole history.
+///A batch that fails to write is only in memory after that, so the next save has to rewrite, see needsRewrite()
+public class LogSegmentStore implements LogJournal {
+
+    static final long SEGMENT_BYTES = 8L * 1024 * 1024;
+    static final int COMPACT_AFTER_SEGMENTS = 4;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("logs-(\\d+)\\.jsonl");
+
+    private enum RecordType { ADDED, CHANGED, REMOVED }
+    private record Pending(RecordType type, Log log) {}
+    public record Replayed(Map<Integer, Log> logs, int maxLogId) {}
+
+    private final Path dir;
+    private final Gson gson = new GsonBuilder().excludeFieldsWithoutExposeAnnotation().create(); //One record per line
+
+    //Queued records by log id. An id keeps its first place in the queue
+    private final Object queueLock = new Object();
+    private LinkedHashMap<Integer, Pending> pending = new LinkedHashMap<>();
+    private long queued = 0;  //Records queued so far, guarded by queueLock
+    private long written = 0; //Records written and synced so far, guarded by queueLock
+    private IOException failure; //Last write error, reported by the next flush
+    private volatile boolean lostWrites; //A batch failed since the last rewrite
+
+    private final ReentrantLock fileLock = new ReentrantLock(); //Held while a batch is written, a segment started or all rewritten
+    private final ReentrantLock compactLock = new ReentrantLock(); //Held while older segments are merged, a reload waits for it
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private FileChannel channel;
+    private long activeSegment = 1; //Guarded by fileLock
+    private long activeSize = 0;    //Guarded by fileLock
+
+    public LogSegmentStore(Path dir) {
+        this.dir = dir;
+
+        Thread writer = new Thread(this::writeLoop, "log-segments");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    //-------------------------------<Recording>-------------------------------
+    @Override
+    public void logAdded(Log log) {
+        enqueue(new Pending(RecordType.ADDED, log));
+    }
+
+    @Override
+    public void logChanged(Log log) {
+        enqueue(new Pending(RecordType.CHANGED, log));
+    }
+
+    @Override
+    public void logRemoved(Log log) {
+        enqueue(new Pending(RecordType.REMOVED, log));
+    }
+
+    private void enqueue(Pending record) {
+        synchronized (queueLock) {
+            Pending before = pending.get(record.log().getLogID());
+            //A queued creation is written with the latest state anyway
+            if (before == null || before.type() != RecordType.ADDED || record.type() != RecordType.CHANGED) {
+                pending.put(record.log().getLogID(), record);
+            }
+            queued++;
+            queueLock.notifyAll();
+        }
+    }
+    //-------------------------------</Recording>-------------------------------
+
+
+    //-------------------------------<Writing>-------------------------------
+    private void writeLoop() {
+        while (true) {
+            LinkedHashMap<Integer, Pending> batch;
+            long batchEnd;
+            synchronized (queueLock) {
+                while (pending.isEmpty()) {
+                    try {
+                        queueLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                batch = pending;
+                pending = new LinkedHashMap<>();
+                batchEnd = queued;
+            }
+
+            IOException error = null;
+            fileLock.lock();
+            try {
+                writeBatch(batch.values());
+            } catch (IOException e) {
+                System.out.println("[LogSegmentStore] ERROR: Could not write logs. " + e.getMessage());
+                error = e;
+            } finally {
+                fileLock.unlock();
+            }
+
+            synchronized (queueLock) {
+                if (error != null) {
+                    failure = error;
+                    lostWrites = true;
+                }
+                written = batchEnd;
+                queueLock.notifyAll();
+            }
+        }
+    }
+
+    //Caller holds fileLock
+    private void writeBatch(Collection<Pending> batch) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Pending p : batch) {
+            sb.append(gson.toJson(toRecord(p))).append('\n');
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        FileChannel ch = openChannel();
+        long before = ch.size();
+        try {
+            while (bytes.hasRemaining()) {
+                ch.write(bytes);
+            }
+            ch.force(false);
+        } catch (IOException e) {
+            dropTornWrite(ch, before);
+            throw e;
+        }
+        activeSize = ch.size();
+
+        if (activeSize >= SEGMENT_BYTES) { //Start the next segment, this one is only read from now on
+            ch.close();
+            channel = null;
+            activeSegment++;
+            activeSize = 0;
+        }
+    }
+
+    //Cuts a half written batch off so the next record does not start on its torn line. Caller holds fileLock
+    private void dropTornWrite(FileChannel ch, long before) {
+        try {
+            ch.truncate(before);
+        } catch (IOException e) {
+            System.out.println("[LogSegmentStore] ERROR: Could not truncate log segment. " + e.getMessage()); //Replay skips the torn line
+        }
+        try {
+            ch.close();
+        } catch (IOException ignored) {
+        }
+        channel = null;
+    }
+
+    //Read when written so a queued record always carries the latest state
+    private JsonObject toRecord(Pending p) {
+        Log log = p.log();
+        JsonObject record = new JsonObject();
+        switch (p.type()) {
+            case ADDED -> {
+                record.addProperty("type", "log");
+                record.add("log", gson.toJsonTree(log));
+            }
+            case CHANGED -> {
+                record.addProperty("type", "update");
+                record.addProperty("id", log.getLogID());
+                record.addProperty("message", log.getMessage());
+                record.addProperty("suppressed", log.isSuppressed());
+            }
+            case REMOVED -> {
+                record.addProperty("type", "removed");
+                record.addProperty("id", log.getLogID());
+            }
+        }
+        return record;
+    }
+
+    //Caller holds fileLock
+    private FileChannel openChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            Files.createDirectories(dir);
+            channel = FileChannel.open(segmentPath(activeSegment),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return channel;
+    }
+
+    //Blocks until everything queued before the call is on disk
+    public void flush() throws IOException {
+        synchronized (queueLock) {
+            if (!awaitWritten()) return;
+            if (failure != null) {
+                IOException e = failure;
+                failure = null;
+                throw e;
+            }
+        }
+    }
+
+    //Caller holds queueLock. False when interrupted
+    private boolean awaitWritten() {
+        long target = queued;
+        while (written < target) {
+            try {
+                queueLock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //True when a batch failed to write since the last rewrite, the segments alone are missing those changes
+    public boolean needsRewrite() {
+        return lostWrites;
+    }
+
+    public boolean hasSegments() {
+        return !segments().isEmpty();
+    }
+
+    //Called before loading. A restored backup replaces the segments, so appends continue after the newest one found.
+    //Earlier write errors are not thrown, the logs are read back from disk
+    public void reopen() throws IOException {
+        synchronized (queueLock) {
+            awaitWritten();
+            failure = null;
+        }
+        compactLock.lock();
+        fileLock.lock();
+        try {
+            if (channel != null) channel.close();
+            channel = null;
+            List<Long> found = segments();
+            activeSegment = found.isEmpty() ? 1 : found.get(found.size() - 1);
+            Path active = segmentPath(activeSegment);
+            activeSize = Files.exists(active) ? Files.size(active) : 0;
+        } finally {
+            fileLock.unlock();
+            compactLock.unlock();
+        }
+    }
+
+    //Replaces every segment with one holding these logs, for the first save after loading the old logs.json
+    //or after a failed load or write. Changes made meanwhile stay queued and are appended after it.
+    //Earlier write errors are not thrown, the new segment holds the changes that failed
+    public void rewrite(Collection<Log> logs) throws IOException {
+        synchronized (queueLock) {
+            awaitWritten();
+        }
+        compactLock.lock();
+        fileLock.lock();
+        try {
+            List<Long> old = segments();
+            long next = old.isEmpty() ? 1 : old.get(old.size() - 1) + 1;
+            Files.createDirectories(dir);
+            Path temp = dir.resolve("logs-" + next + ".jsonl.tmp");
+            try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (Log log : logs) {
+                    out.write(gson.toJson(toRecord(new Pending(RecordType.ADDED, log))));
+                    out.write('\n');
+                }
+            }
+            syncFile(temp);
+            Files.move(temp, segmentPath(next), StandardCopyOption.ATOMIC_MOVE);
+            lostWrites = false; //Batches fail under fileLock, so every failed change is in the new segment
+            synchronized (queueLock) {
+                failure = null;
+            }
+
+            //Oldest first, a crash part way leaves only the newest old segments in front of the new one
+            if (channel != null) channel.close();
+            channel = null;
+            for (long segment : old) {
+                Files.deleteIfExists(segmentPath(segment));
+            }
+            activeSegment = next;
+            activeSize = Files.size(segmentPath(next));
+        } finally {
+            fileLock.unlock();
+            compactLock.unlock();
+        }
+    }
+    //-------------------------------</Writing>-------------------------------
+
+
+    //-------------------------------<Compaction>-------------------------------
+    //Starts merging the older segments on a background thread when enough have piled up
+    public void compactInBackgroundIfDue() {
+        if (sealedSegments().size() < COMPACT_AFTER_SEGMENTS) return;
+        if (!compacting.compareAndSet(false, true)) return;
+        Thread compactor = new Thread(() -> {
+            try {
+                compact();
+            } catch (IOException e) {
+                System.out.println("[LogSegmentStore] ERROR: Could not compact log segments. " + e.getMessage());
+            } finally {
+                compacting.set(false);
+            }
+        }, "log-compaction");
+        compactor.setDaemon(true);
+        compactor.start();
+    }
+
+    //Merges every segment before the one taking appends into the first of them.
+    //Only the latest state of logs that are still there is kept. The writer keeps appending meanwhile
+    void compact() throws IOException {
+        compactLock.lock();
+        try {
+            List<Long> sealed = sealedSegments();
+            if (sealed.size() < 2) return;
+
+            LinkedHashMap<Integer, JsonObject> live = new LinkedHashMap<>();
+            for (long segment : sealed) {
+                readSegment(segmentPath(segment), record -> {
+                    String type = record.has("type") ? record.get("type").getAsString() : "";
+                    switch (type) {
+                        case "log" -> {
+                            JsonObject log = record.getAsJsonObject("log");
+                            live.put(log.get("logID").getAsInt(), record);
+                        }
+                        case "update" -> {
+                            JsonObject existing = live.get(record.get("id").getAsInt());
+                            if (existing == null) return;
+                            JsonObject log = existing.getAsJsonObject("log");
+                            log.add("message", record.get("message"));
+                            log.add("suppressed", record.get("suppressed"));
+                        }
+                        case "removed" -> live.remove(record.get("id").getAsInt());
+                    }
+                });
+            }
+
+            Path first = segmentPath(sealed.get(0));
+            Path temp = dir.resolve(first.getFileName() + ".tmp");
+            try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (JsonObject record : live.values()) {
+                    out.write(gson.toJson(record));
+                    out.write('\n');
+                }
+            }
+            syncFile(temp);
+            Files.move(temp, first, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            //Oldest first, a crash part way leaves a tail of merged segments that replays to the same state
+            for (int i = 1; i < sealed.size(); i++) {
+                Files.deleteIfExists(segmentPath(sealed.get(i)));
+            }
+            System.out.println("[LogSegmentStore] Compacted " + sealed.size() + " segments, " + live.size() + " logs kept");
+        } finally {
+            compactLock.unlock();
+        }
+    }
+    //-------------------------------</Compaction>-------------------------------
+
+
+    //-------------------------------<Replay>-------------------------------
+    //Every log still there after applying all segments in order, by id. Nothing may be journaling to this yet
+    public Replayed replay() throws IOException {
+        TreeMap<Integer, Log> logs = new TreeMap<>();
+        int[] maxId = {0};
+        for (long segment : segments()) {
+            readSegment(segmentPath(segment), record -> {
+                String type = record.has("type") ? record.get("type").getAsString() : "";
+                switch (type) {
+                    case "log" -> {
+                        Log log = gson.fromJson(record.get("log"), Log.class);
+                        if (log == null) return;
+                        logs.put(log.getLogID(), log);
+                        maxId[0] = Math.max(maxId[0], log.getLogID());
+                    }
+                    case "update" -> {
+                        Log log = logs.get(record.get("id").getAsInt());
+                        if (log == null) return;
+                        if (record.has("message") && !record.get("message").isJsonNull()) {
+                            log.setMessage(record.get("message").getAsString());
+                        }
+                        log.setSuppressed(record.get("suppressed").getAsBoolean());
+                    }
+                    case "removed" -> {
+                        int id = record.get("id").getAsInt();
+                        logs.remove(id);
+                        maxId[0] = Math.max(maxId[0], id);
+                    }
+                    default -> System.out.println("[LogSegmentStore] WARNING: Unknown record type: " + type);
+                }
+            });
+        }
+        return new Replayed(logs, maxId[0]);
+    }
+
+    private interface RecordConsumer {
+        void accept(JsonObject record);
+    }
+
+    private static void readSegment(Path path, RecordConsumer consumer) throws IOException {
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) continue;
+                try {
+                    consumer.accept(JsonParser.parseString(line).getAsJsonObject());
+                } catch (JsonParseException | IllegalStateException | NullPointerException | UnsupportedOperationException e) {
+                    //A crash mid write leaves a torn last line
+                    System.out.println("[LogSegmentStore] WARNING: Skipping unreadable record on line " + lineNumber + " of " + path.getFileName());
+                }
+            }
+        }
+    }
+    //-------------------------------</Replay>-------------------------------
+
+
+    //-------------------------------<Segments>-------------------------------
+    private Path segmentPath(long segment) {
+        return dir.resolve(String.format("logs-%06d.jsonl", segment));
+    }
+
+    //Numbers of the segment files on disk, oldest first
+    private List<Long> segments() {
+        List<Long> found = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return found;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "logs-*.jsonl")) {
+            for (Path file : files) {
+                Matcher m = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (m.matches()) found.add(Long.parseLong(m.group(1)));
+            }
+        } catch (IOException e) {
+            System.out.println("[LogSegmentStore] ERROR: Could not list log segments. " + e.getMessage());
+        }
+        Collections.sort(found);
+        return found;
+    }
+
+    //Segments before the one taking appends, they never change again until compacted
+    private List<Long> sealedSegments() {
+        long active;
+        fileLock.lock();
+        try {
+            active = activeSegment;
+        } finally {
+            fileLock.unlock();
+        }
+        List<Long> sealed = new ArrayList<>();
+        for (long segment : segments()) {
+            if (segment < active) sealed.add(segment);
+        }
+        return sealed;
+    }
+
+    private static void syncFile(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+    }
+    //-------------------------------</Segments>-------------------------------
+}
@@ -2,6 +2,7 @@ package storage;
 
 import com.google.gson.annotations.Expose;
 import com.google.gson.reflect.TypeToken;
+import core.LogRetention;
 import gui.MainWindow;
 
 import javax.swing.*;
@@ -117,12 +118,20 @@ public class UserConfigManager extends AbstractFileManager {
         public int autofetchTimer;
         @Expose
         public boolean hasConnect;
+        @Expose
+        public LogRetention logRetention; //Null in configs saved before it existed
 
         public UserConfig(boolean firstOpen, int autoSaveTimer, int autofetchTimer,boolean hasConnect){
             this.firstOpen = firstOpen;
             this.autoSaveTimer = autoSaveTimer;
             this.autofetchTimer = autofetchTimer;
             this.hasConnect = hasConnect;
+            this.logRetention = LogRetention.defaults();
+        }
+
+        public LogRetention getLogRetention() {
+            if (logRetention == null) logRetention = LogRetention.defaults(); //Written out with the next save to be edited
+            return logRetention;
         }
     }
     public UserConfigManager.UserConfig getUserConfig(){